@@ -0,0 +1,58 @@
+package nachos.bench;
+
+import nachos.machine.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how much garbage the simulation produces while running user
+ * programs. Each operation runs one program to completion in a new process.
+ * The <tt>bytes</tt> counter gives the bytes allocated by every thread,
+ * including Nachos threads that finished during the operation, which the
+ * JMH profilers cannot see; divide it by the <tt>instructions</tt> counter
+ * for the bytes allocated per instruction. Run it with the GC profiler for
+ * the number and duration of collections:
+ *
+ * <pre>
+ * make JMH=/path/to/jmh run JMHARGS="AllocationBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class AllocationBenchmark {
+	@Param({ "write10.coff", "matmult.coff" })
+	public String program;
+
+	@Param({ "interpreter", "block" })
+	public String engine;
+
+	@Setup(Level.Trial)
+	public void boot() {
+		BenchmarkKernel.boot("Processor.engine = " + engine);
+	}
+
+	/** Counts the instructions executed and the bytes allocated. */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+
+		public long bytes;
+	}
+
+	@Benchmark
+	public void run(Counters counters) {
+		long startTicks = BenchmarkGrader.userTicks();
+		long startBytes = BenchmarkGrader.allocatedBytes();
+
+		BenchmarkKernel.execute(program);
+
+		counters.bytes += BenchmarkGrader.allocatedBytes() - startBytes;
+		counters.instructions += (BenchmarkGrader.userTicks() - startTicks)
+				/ Stats.UserTick;
+	}
+}
@@ -0,0 +1,91 @@
+package nachos.bench;
+
+import nachos.ag.*;
+import nachos.machine.*;
+import nachos.security.*;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The autograder used by <tt>BenchmarkKernel</tt>. It tells the kernel when a
+ * benchmarked process exits, and lets benchmarks read the machine statistics
+ * and the memory allocated by Nachos threads.
+ */
+public class BenchmarkGrader extends AutoGrader {
+	/**
+	 * Allocate a new benchmark grader.
+	 */
+	public BenchmarkGrader() {
+	}
+
+	public void start(Privilege privilege) {
+		BenchmarkGrader.privilege = privilege;
+
+		super.start(privilege);
+	}
+
+	public void finishingCurrentThread() {
+		// the JVM forgets a thread's allocation count once it dies
+		finishedBytes += threads.getCurrentThreadAllocatedBytes();
+
+		super.finishingCurrentThread();
+	}
+
+	public void finishingCurrentProcess(int status) {
+		super.finishingCurrentProcess(status);
+
+		BenchmarkKernel.finishingProcess();
+	}
+
+	/**
+	 * Return the number of ticks spent running user code, i.e. the number of
+	 * MIPS instructions executed, times <tt>Stats.UserTick</tt>.
+	 *
+	 * @return the user tick count.
+	 */
+	public static long userTicks() {
+		return privilege.stats.userTicks;
+	}
+
+	/**
+	 * Return the number of pages the kernel has read from executables.
+	 *
+	 * @return the COFF read count.
+	 */
+	public static int coffReads() {
+		return privilege.stats.numCOFFReads;
+	}
+
+	/**
+	 * Return the number of page faults taken by user programs.
+	 *
+	 * @return the page fault count.
+	 */
+	public static int pageFaults() {
+		return privilege.stats.numPageFaults;
+	}
+
+	/**
+	 * Return the number of bytes allocated so far by every thread in the JVM,
+	 * including Nachos threads that have finished.
+	 *
+	 * @return the allocated byte count.
+	 */
+	public static long allocatedBytes() {
+		long bytes = finishedBytes;
+		long[] allocated = threads.getThreadAllocatedBytes(threads
+				.getAllThreadIds());
+		for (int i = 0; i < allocated.length; i++) {
+			if (allocated[i] > 0)
+				bytes += allocated[i];
+		}
+		return bytes;
+	}
+
+	private static Privilege privilege;
+
+	private static com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	private static volatile long finishedBytes = 0;
+}
@@ -0,0 +1,216 @@
+package nachos.bench;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+import nachos.vm.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * A kernel that lets benchmarks running outside of Nachos run code inside it.
+ * Instead of running a shell, the main kernel thread waits for jobs handed
+ * to it by <tt>call()</tt> and runs them one at a time. Nothing happens in
+ * the simulation between jobs.
+ *
+ * <p>
+ * It is a <tt>VMKernel</tt>, so benchmarks can run demand-paged processes by
+ * booting with <tt>Kernel.processClassName = nachos.vm.VMProcess</tt>.
+ *
+ * <p>
+ * Nachos can only be booted once per JVM, so benchmarks using this kernel
+ * must run forked.
+ */
+public class BenchmarkKernel extends VMKernel {
+	/**
+	 * Allocate a new benchmark kernel.
+	 */
+	public BenchmarkKernel() {
+		super();
+	}
+
+	/**
+	 * Initialize this kernel. Benchmarks never terminate the kernel, which
+	 * would remove the swap file, so unlink it now; it stays usable while it
+	 * is open.
+	 */
+	public void initialize(String[] args) {
+		super.initialize(args);
+
+		ThreadedKernel.fileSystem.remove("swapfile");
+	}
+
+	/**
+	 * Skip the console test, which would wait for input.
+	 */
+	public void selfTest() {
+	}
+
+	/**
+	 * Run jobs handed over by <tt>call()</tt>. Never returns.
+	 */
+	public void run() {
+		// a process that is never run, so that the benchmarked processes are
+		// never the last to exit and do not halt the machine
+		holder = UserProcess.newUserProcess();
+
+		processExited = new Semaphore(0);
+
+		while (true) {
+			Runnable job = take(requests);
+			job.run();
+			put(replies, job);
+		}
+	}
+
+	/**
+	 * Boot Nachos in a background thread, using <tt>nachos.conf</tt> in the
+	 * current directory with the specified lines replacing any lines with the
+	 * same keys.
+	 *
+	 * @param overrides configuration lines of the form <tt>key = value</tt>.
+	 */
+	public static synchronized void boot(String... overrides) {
+		Lib.assertTrue(!booted,
+				"Nachos can only be booted once per JVM; fork each benchmark");
+		booted = true;
+
+		final String configFileName = writeConfig(overrides);
+
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				Machine.main(new String[] { "-[]", configFileName, "--",
+						BenchmarkGrader.class.getName() });
+			}
+		});
+
+		// Nachos threads inherit this, so they do not keep the JVM alive
+		thread.setDaemon(true);
+		thread.start();
+
+		// wait for the kernel to start taking jobs
+		call(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+
+	/**
+	 * Run the specified job in the main kernel thread and wait for it to
+	 * finish. The job may block on Nachos synchronization primitives.
+	 *
+	 * @param job the code to run inside Nachos.
+	 */
+	public static void call(Runnable job) {
+		put(requests, job);
+		take(replies);
+	}
+
+	/**
+	 * Run the specified program to completion in a new process.
+	 *
+	 * @param name the name of the file containing the executable.
+	 */
+	public static void execute(final String name) {
+		call(new Runnable() {
+			public void run() {
+				UserProcess process = UserProcess.newUserProcess();
+				Lib.assertTrue(process.execute(name, new String[] { name }),
+						"could not execute " + name);
+
+				processExited.P();
+			}
+		});
+	}
+
+	/**
+	 * Return a process that is never run. Its page table maps every physical
+	 * page, so it can be used to exercise the virtual memory accessors.
+	 *
+	 * @return the holder process.
+	 */
+	public static UserProcess holder() {
+		return holder;
+	}
+
+	/**
+	 * Called by <tt>BenchmarkGrader</tt> when a process exits.
+	 */
+	static void finishingProcess() {
+		processExited.V();
+	}
+
+	private static String writeConfig(String[] overrides) {
+		try {
+			File file = File.createTempFile("nachos", ".conf");
+			file.deleteOnExit();
+
+			BufferedReader in = new BufferedReader(new FileReader("nachos.conf"));
+			PrintWriter out = new PrintWriter(new FileWriter(file));
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				boolean overridden = false;
+				for (int i = 0; i < overrides.length; i++) {
+					if (key(line).equals(key(overrides[i])))
+						overridden = true;
+				}
+
+				if (!overridden)
+					out.println(line);
+			}
+
+			for (int i = 0; i < overrides.length; i++)
+				out.println(overrides[i]);
+
+			in.close();
+			out.close();
+
+			return file.getPath();
+		}
+		catch (IOException e) {
+			Lib.assertNotReached("could not write configuration: " + e);
+			return null;
+		}
+	}
+
+	private static String key(String line) {
+		int equals = line.indexOf('=');
+		return (equals < 0 ? line : line.substring(0, equals)).trim();
+	}
+
+	private static void put(SynchronousQueue<Runnable> queue, Runnable job) {
+		try {
+			queue.put(job);
+		}
+		catch (InterruptedException e) {
+			Lib.assertNotReached("interrupted");
+		}
+	}
+
+	private static Runnable take(SynchronousQueue<Runnable> queue) {
+		try {
+			return queue.take();
+		}
+		catch (InterruptedException e) {
+			Lib.assertNotReached("interrupted");
+			return null;
+		}
+	}
+
+	private static boolean booted = false;
+
+	private static SynchronousQueue<Runnable> requests = new SynchronousQueue<Runnable>();
+
+	private static SynchronousQueue<Runnable> replies = new SynchronousQueue<Runnable>();
+
+	private static UserProcess holder;
+
+	private static Semaphore processExited;
+}
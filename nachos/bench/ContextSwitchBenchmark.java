@@ -0,0 +1,53 @@
+package nachos.bench;
+
+import nachos.threads.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the latency of switching between kernel threads. Two threads
+ * yield to each other, so every <tt>KThread.yield()</tt> goes through
+ * <tt>TCB.contextSwitch()</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class ContextSwitchBenchmark {
+	@Setup(Level.Trial)
+	public void boot() {
+		BenchmarkKernel.boot();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(2 * yields)
+	public void contextSwitch() {
+		BenchmarkKernel.call(pingPong);
+	}
+
+	private static final int yields = 1000;
+
+	private static void yieldRepeatedly() {
+		for (int i = 0; i < yields; i++)
+			KThread.yield();
+	}
+
+	private static final Runnable pingPong = new Runnable() {
+		public void run() {
+			final Semaphore done = new Semaphore(0);
+
+			new KThread(new Runnable() {
+				public void run() {
+					yieldRepeatedly();
+					done.V();
+				}
+			}).setName("yielder").fork();
+
+			yieldRepeatedly();
+
+			done.P();
+		}
+	};
+}
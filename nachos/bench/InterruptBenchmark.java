@@ -0,0 +1,135 @@
+package nachos.bench;
+
+import nachos.machine.*;
+import nachos.security.*;
+
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures scheduling and dispatching interrupts. Each operation schedules
+ * an interrupt for the next kernel tick and ticks once to dispatch it, with a
+ * number of other interrupts pending far in the future, as the timer and the
+ * devices keep theirs. The interrupt controller runs on its own, without the
+ * rest of the machine.
+ *
+ * <p>
+ * <tt>treeSet</tt> does the same work on a <tt>TreeSet</tt> of interrupt
+ * objects, as the interrupt controller did before it kept its pending
+ * interrupts in an <tt>EventQueue</tt>, to compare the two.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+public class InterruptBenchmark {
+	@Param({ "4", "64" })
+	public int pending;
+
+	@Setup
+	public void setup() {
+		Privilege privilege = new Privilege() {
+			public void doPrivileged(Runnable action) {
+				action.run();
+			}
+
+			public Object doPrivileged(PrivilegedAction action) {
+				return action.run();
+			}
+
+			public Object doPrivileged(PrivilegedExceptionAction action)
+					throws PrivilegedActionException {
+				try {
+					return action.run();
+				}
+				catch (Exception e) {
+					throw new PrivilegedActionException(e);
+				}
+			}
+
+			public void exit(int exitStatus) {
+				Lib.assertNotReached("exit() called");
+			}
+		};
+
+		privilege.stats = new Stats();
+		new Interrupt(privilege);
+		interrupt = privilege.interrupt;
+
+		for (int i = 0; i < pending; i++)
+			interrupt.schedule(farAway + i, "pending", handler);
+
+		tree = new TreeSet<PendingInterrupt>();
+		for (int i = 0; i < pending; i++)
+			tree.add(new PendingInterrupt(farAway + i, "pending", handler));
+	}
+
+	@Benchmark
+	public void scheduleAndDispatch() {
+		interrupt.schedule(Stats.KernelTick, "benchmark", handler);
+		interrupt.tick(true);
+	}
+
+	@Benchmark
+	public void treeSet() {
+		time += Stats.KernelTick;
+		tree.add(new PendingInterrupt(time, "benchmark", handler));
+
+		PendingInterrupt next = tree.first();
+		tree.remove(next);
+		next.handler.run();
+	}
+
+	@TearDown
+	public void check() {
+		Lib.assertTrue(dispatched > 0, "no interrupts were dispatched");
+	}
+
+	private static final long farAway = 1L << 60;
+
+	private Privilege.InterruptPrivilege interrupt;
+
+	private TreeSet<PendingInterrupt> tree;
+
+	private long time = 0, nextId = 0;
+
+	private long dispatched = 0;
+
+	private Runnable handler = new Runnable() {
+		public void run() {
+			dispatched++;
+		}
+	};
+
+	/** A pending interrupt, as the interrupt controller used to keep it. */
+	private class PendingInterrupt implements Comparable<PendingInterrupt> {
+		PendingInterrupt(long time, String type, Runnable handler) {
+			this.time = time;
+			this.type = type;
+			this.handler = handler;
+			this.id = nextId++;
+		}
+
+		public int compareTo(PendingInterrupt toOccur) {
+			if (time < toOccur.time)
+				return -1;
+			else if (time > toOccur.time)
+				return 1;
+			else if (id < toOccur.id)
+				return -1;
+			else if (id > toOccur.id)
+				return 1;
+			else
+				return 0;
+		}
+
+		long time, id;
+
+		String type;
+
+		Runnable handler;
+	}
+}
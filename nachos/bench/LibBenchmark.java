@@ -0,0 +1,31 @@
+package nachos.bench;
+
+import nachos.machine.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the byte order conversions the processor uses for every memory
+ * access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+public class LibBenchmark {
+	@Benchmark
+	public int bytesToInt() {
+		offset = (offset + 4) & (memory.length - 1);
+		return Lib.bytesToInt(memory, offset);
+	}
+
+	@Benchmark
+	public byte[] bytesFromInt() {
+		offset = (offset + 4) & (memory.length - 1);
+		Lib.bytesFromInt(memory, offset, offset);
+		return memory;
+	}
+
+	private byte[] memory = new byte[Processor.pageSize];
+
+	private int offset = 0;
+}
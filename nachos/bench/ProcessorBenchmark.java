@@ -0,0 +1,50 @@
+package nachos.bench;
+
+import nachos.machine.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how fast the processor runs user programs. Each operation runs
+ * one program to completion in a new process. The <tt>instructions</tt>
+ * counter gives the MIPS instructions executed per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class ProcessorBenchmark {
+	@Param({ "matmult.coff", "sort.coff" })
+	public String program;
+
+	@Param({ "interpreter", "block" })
+	public String engine;
+
+	@Param({ "false", "true" })
+	public String batchTicks;
+
+	@Setup(Level.Trial)
+	public void boot() {
+		BenchmarkKernel.boot("Processor.engine = " + engine,
+				"Processor.batchTicks = " + batchTicks);
+	}
+
+	/** Counts the instructions executed. */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+	}
+
+	@Benchmark
+	public void run(Counters counters) {
+		long start = BenchmarkGrader.userTicks();
+
+		BenchmarkKernel.execute(program);
+
+		counters.instructions += (BenchmarkGrader.userTicks() - start)
+				/ Stats.UserTick;
+	}
+}
@@ -0,0 +1,57 @@
+package nachos.bench;
+
+import nachos.machine.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how fast a demand-paged process starts. Each operation runs one
+ * program to completion in a new <tt>VMProcess</tt>, so for a short program
+ * most of the work is loading the executable and faulting in its pages. The
+ * <tt>coffPages</tt> counter gives the pages loaded from the executable, and
+ * the <tt>pageFaults</tt> counter the faults taken while running it. With
+ * <tt>prepaging</tt> on, every run after the first prepages the working set
+ * recorded by the earlier runs.
+ *
+ * <p>
+ * <tt>write10.coff</tt> is the largest test program that runs without input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class StartupBenchmark {
+	@Param({ "exit1.coff", "write10.coff" })
+	public String program;
+
+	@Param({ "false", "true" })
+	public boolean prepaging;
+
+	@Setup(Level.Trial)
+	public void boot() {
+		BenchmarkKernel.boot("Kernel.processClassName = nachos.vm.VMProcess",
+				"VMKernel.prepaging = " + prepaging);
+	}
+
+	/** Counts the pages loaded from the executable and the page faults. */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long coffPages;
+
+		public long pageFaults;
+	}
+
+	@Benchmark
+	public void run(Counters counters) {
+		int start = BenchmarkGrader.coffReads();
+		int faults = BenchmarkGrader.pageFaults();
+
+		BenchmarkKernel.execute(program);
+
+		counters.coffPages += BenchmarkGrader.coffReads() - start;
+		counters.pageFaults += BenchmarkGrader.pageFaults() - faults;
+	}
+}
@@ -0,0 +1,65 @@
+package nachos.bench;
+
+import nachos.machine.*;
+import nachos.userprog.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the bandwidth of <tt>UserProcess.readVirtualMemory()</tt> and
+ * <tt>writeVirtualMemory()</tt>, copying a number of pages at a time to or
+ * from a process whose page table maps all of physical memory. The
+ * <tt>bytes</tt> counter gives the bandwidth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class VirtualMemoryBenchmark {
+	@Param({ "1", "16", "64" })
+	public int pages;
+
+	@Setup(Level.Trial)
+	public void boot() {
+		BenchmarkKernel.boot();
+
+		buffer = new byte[pages * Processor.pageSize];
+	}
+
+	/** Counts the bytes copied. */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long bytes;
+	}
+
+	@Benchmark
+	public void read(Counters counters) {
+		BenchmarkKernel.call(read);
+		counters.bytes += buffer.length;
+	}
+
+	@Benchmark
+	public void write(Counters counters) {
+		BenchmarkKernel.call(write);
+		counters.bytes += buffer.length;
+	}
+
+	private byte[] buffer;
+
+	private Runnable read = new Runnable() {
+		public void run() {
+			UserProcess process = BenchmarkKernel.holder();
+			Lib.assertTrue(process.readVirtualMemory(0, buffer) == buffer.length);
+		}
+	};
+
+	private Runnable write = new Runnable() {
+		public void run() {
+			UserProcess process = BenchmarkKernel.holder();
+			Lib.assertTrue(process.writeVirtualMemory(0, buffer) == buffer.length);
+		}
+	};
+}
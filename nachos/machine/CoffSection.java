@@ -196,6 +196,38 @@ public class CoffSection {
 		Arrays.fill(memory, paddr + initlen, paddr + pageSize, (byte) 0);
 	}
 
+	/**
+	 * Load consecutive pages from this segment into physical memory, with a
+	 * single read of the executable.
+	 * 
+	 * @param spn the page number within this segment of the first page.
+	 * @param ppns the physical pages to load the pages into, in order.
+	 */
+	public void loadPages(int spn, int[] ppns) {
+		Lib.assertTrue(file != null);
+
+		Lib.assertTrue(spn >= 0 && spn + ppns.length <= numPages);
+
+		int pageSize = Processor.pageSize;
+		byte[] memory = Machine.processor().getMemory();
+		int initlen = 0;
+
+		if (initialized)
+			initlen = Math.min(ppns.length * pageSize, size - spn * pageSize);
+
+		byte[] buf = new byte[ppns.length * pageSize];
+		if (initlen > 0)
+			Lib.strictReadFile(file, contentOffset + spn * pageSize, buf, 0,
+					initlen);
+
+		for (int i = 0; i < ppns.length; i++) {
+			Lib.assertTrue(ppns[i] >= 0
+					&& ppns[i] < Machine.processor().getNumPhysPages());
+			System.arraycopy(buf, i * pageSize, memory, ppns[i] * pageSize,
+					pageSize);
+		}
+	}
+
 	/** The COFF object to which this section belongs. */
 	protected Coff coff;
 
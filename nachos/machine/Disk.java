@@ -0,0 +1,268 @@
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A simulated disk. The disk has <tt>Disk.numTracks</tt> tracks of
+ * <tt>Disk.sectorsPerTrack</tt> sectors, each <tt>SectorSize</tt> bytes, and
+ * a single head. Its contents are kept in memory, and do not survive a halt
+ * unless <tt>Disk.image</tt> names a host file to back them. The image is
+ * read when the disk is created and every write goes through to it.
+ *
+ * <p>
+ * The disk handles one request at a time. A request reads or writes a run of
+ * consecutive sectors, and takes the time to seek to the track of the first
+ * sector, then to wait for the sector to rotate under the head, then to
+ * transfer the sectors. A seek takes a tenth of <tt>Stats.SeekTime</tt>, plus
+ * a share of the rest in proportion to the number of tracks crossed, so
+ * crossing the whole disk takes <tt>Stats.SeekTime</tt>. The disk rotates once
+ * every <tt>Stats.RotationTime</tt> ticks, all the time, so the wait depends
+ * on when the head reaches the track. When the request finishes, the disk
+ * calls its interrupt handler.
+ */
+public final class Disk {
+	/**
+	 * Allocate a new disk.
+	 *
+	 * @param privilege encapsulates privileged access to the Nachos machine.
+	 */
+	public Disk(Privilege privilege) {
+		System.out.print(" disk");
+
+		this.privilege = privilege;
+
+		numTracks = Config.getInteger("Disk.numTracks", 1024);
+		sectorsPerTrack = Config.getInteger("Disk.sectorsPerTrack", 32);
+		Lib.assertTrue(numTracks > 0 && sectorsPerTrack > 0);
+
+		data = new byte[getNumSectors() * SectorSize];
+
+		final String imageName = Config.getString("Disk.image", null);
+		if (imageName != null) {
+			privilege.doPrivileged(new Runnable() {
+				public void run() {
+					openImage(new File(imageName));
+				}
+			});
+			Lib.assertTrue(image != null, "could not open disk image "
+					+ imageName);
+		}
+
+		requestDone = new Runnable() {
+			public void run() {
+				requestDone();
+			}
+		};
+	}
+
+	/**
+	 * Set this disk's interrupt handler, which is called every time a
+	 * request finishes.
+	 *
+	 * @param interruptHandler the callback to call when a request finishes.
+	 */
+	public void setInterruptHandler(Runnable interruptHandler) {
+		this.interruptHandler = interruptHandler;
+	}
+
+	/**
+	 * Start reading <i>numSectors</i> sectors, starting at <i>sector</i>, into
+	 * <i>buf</i>. The data is in the buffer when the interrupt handler is
+	 * called. No other request may be in progress.
+	 *
+	 * @param sector the first sector to read.
+	 * @param buf the buffer to read into.
+	 * @param offset the first byte of the buffer to read into.
+	 * @param numSectors the number of sectors to read.
+	 */
+	public void readRequest(int sector, byte[] buf, int offset, int numSectors) {
+		startRequest(sector, buf, offset, numSectors, false);
+	}
+
+	/**
+	 * Start writing <i>numSectors</i> sectors from <i>buf</i>, starting at
+	 * <i>sector</i>. The buffer must not change until the interrupt handler is
+	 * called. No other request may be in progress.
+	 *
+	 * @param sector the first sector to write.
+	 * @param buf the buffer to write from.
+	 * @param offset the first byte of the buffer to write from.
+	 * @param numSectors the number of sectors to write.
+	 */
+	public void writeRequest(int sector, byte[] buf, int offset, int numSectors) {
+		startRequest(sector, buf, offset, numSectors, true);
+	}
+
+	private void startRequest(int sector, byte[] buf, int offset,
+			int numSectors, boolean writing) {
+		Lib.assertTrue(!busy);
+		Lib.assertTrue(numSectors > 0 && sector >= 0
+				&& sector + numSectors <= getNumSectors());
+		Lib.assertTrue(offset >= 0
+				&& offset + numSectors * SectorSize <= buf.length);
+
+		busy = true;
+		requestSector = sector;
+		requestBuf = buf;
+		requestOffset = offset;
+		requestSectors = numSectors;
+		requestWriting = writing;
+
+		int track = getTrack(sector);
+		int distance = Math.abs(track - headTrack);
+		long seek = 0;
+		if (distance > 0)
+			seek = Stats.SeekTime / 10 + (long) (Stats.SeekTime - Stats.SeekTime / 10)
+					* distance / Math.max(1, numTracks - 1);
+
+		// the sector passes under the head once per rotation
+		long arrival = privilege.stats.totalTicks + seek;
+		long sectorStart = (long) (sector % sectorsPerTrack) * Stats.RotationTime
+				/ sectorsPerTrack;
+		long rotation = (sectorStart - arrival % Stats.RotationTime
+				+ Stats.RotationTime) % Stats.RotationTime;
+		long transfer = Lib.divRoundUp(numSectors * Stats.RotationTime,
+				sectorsPerTrack);
+
+		privilege.stats.diskSeekTicks += seek;
+		privilege.stats.diskRotationTicks += rotation;
+		privilege.stats.diskTransferTicks += transfer;
+		privilege.stats.numDiskSeeks += (distance > 0) ? 1 : 0;
+
+		headTrack = getTrack(sector + numSectors - 1);
+
+		privilege.interrupt.schedule(Math.max(1, seek + rotation + transfer),
+				"disk", requestDone);
+	}
+
+	private void requestDone() {
+		Lib.assertTrue(busy);
+
+		int start = requestSector * SectorSize;
+		int length = requestSectors * SectorSize;
+		if (requestWriting) {
+			System.arraycopy(requestBuf, requestOffset, data, start, length);
+			privilege.stats.numDiskWrites += requestSectors;
+
+			if (image != null)
+				writeImage(start, length);
+		}
+		else {
+			System.arraycopy(data, start, requestBuf, requestOffset, length);
+			privilege.stats.numDiskReads += requestSectors;
+		}
+
+		busy = false;
+		requestBuf = null;
+
+		if (interruptHandler != null)
+			interruptHandler.run();
+	}
+
+	private void openImage(File f) {
+		try {
+			image = new RandomAccessFile(f, "rw");
+
+			int amount = 0;
+			while (amount < data.length) {
+				int n = image.read(data, amount, data.length - amount);
+				if (n == -1)
+					break;
+				amount += n;
+			}
+		}
+		catch (IOException e) {
+			image = null;
+		}
+	}
+
+	private void writeImage(final int start, final int length) {
+		privilege.doPrivileged(new Runnable() {
+			public void run() {
+				try {
+					image.seek(start);
+					image.write(data, start, length);
+				}
+				catch (IOException e) {
+					Lib.assertNotReached("could not write disk image");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Return the track holding the specified sector.
+	 *
+	 * @param sector a sector of this disk.
+	 * @return the track holding the sector.
+	 */
+	public int getTrack(int sector) {
+		return sector / sectorsPerTrack;
+	}
+
+	/**
+	 * Return the track the head is over, or is moving to if a request is in
+	 * progress.
+	 *
+	 * @return the track under the head.
+	 */
+	public int getHeadTrack() {
+		return headTrack;
+	}
+
+	/**
+	 * Return the number of tracks on this disk.
+	 *
+	 * @return the number of tracks.
+	 */
+	public int getNumTracks() {
+		return numTracks;
+	}
+
+	/**
+	 * Return the number of sectors in each track.
+	 *
+	 * @return the number of sectors per track.
+	 */
+	public int getSectorsPerTrack() {
+		return sectorsPerTrack;
+	}
+
+	/**
+	 * Return the number of sectors on this disk.
+	 *
+	 * @return the number of sectors.
+	 */
+	public int getNumSectors() {
+		return numTracks * sectorsPerTrack;
+	}
+
+	/** The number of bytes in a sector. */
+	public static final int SectorSize = 128;
+
+	private Privilege privilege;
+
+	private int numTracks, sectorsPerTrack;
+
+	private byte[] data;
+
+	private RandomAccessFile image = null;
+
+	private int headTrack = 0;
+
+	private boolean busy = false;
+
+	private int requestSector, requestOffset, requestSectors;
+
+	private byte[] requestBuf;
+
+	private boolean requestWriting;
+
+	private Runnable requestDone;
+
+	private Runnable interruptHandler = null;
+}
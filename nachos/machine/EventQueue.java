@@ -0,0 +1,207 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+/**
+ * A priority queue of pending interrupts, ordered by the time they are due
+ * and then by the order they were scheduled in. It is a binary min-heap kept
+ * in parallel arrays, so scheduling and dispatching an interrupt allocate
+ * nothing once the arrays have grown to the largest number of interrupts
+ * ever pending at once. The earliest interrupt can be examined in constant
+ * time.
+ */
+final class EventQueue {
+	/**
+	 * Allocate a new, empty event queue.
+	 */
+	EventQueue() {
+		this(16);
+	}
+
+	private EventQueue(int capacity) {
+		times = new long[capacity];
+		ids = new long[capacity];
+		types = new String[capacity];
+		handlers = new Runnable[capacity];
+	}
+
+	/**
+	 * Test whether no interrupts are pending.
+	 *
+	 * @return <tt>true</tt> if the queue is empty.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Return the number of pending interrupts.
+	 *
+	 * @return the size of the queue.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Add an interrupt to the queue.
+	 *
+	 * @param time the time the interrupt is due.
+	 * @param type a name for the type of interrupt.
+	 * @param handler the interrupt handler to call.
+	 */
+	void add(long time, String type, Runnable handler) {
+		if (size == times.length)
+			grow();
+
+		long id = numEventsCreated++;
+
+		// sift the hole up from the end, moving later events down into it
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(time, id, parent))
+				break;
+
+			move(parent, i);
+			i = parent;
+		}
+
+		set(i, time, id, type, handler);
+	}
+
+	/**
+	 * Return the time the earliest interrupt is due. The queue must not be
+	 * empty.
+	 *
+	 * @return the time of the first interrupt.
+	 */
+	long firstTime() {
+		Lib.assertTrue(size > 0);
+		return times[0];
+	}
+
+	/**
+	 * Return the type of the earliest interrupt.
+	 *
+	 * @return the type of the first interrupt.
+	 */
+	String firstType() {
+		Lib.assertTrue(size > 0);
+		return types[0];
+	}
+
+	/**
+	 * Return the handler of the earliest interrupt.
+	 *
+	 * @return the handler of the first interrupt.
+	 */
+	Runnable firstHandler() {
+		Lib.assertTrue(size > 0);
+		return handlers[0];
+	}
+
+	/**
+	 * Remove the earliest interrupt from the queue.
+	 */
+	void removeFirst() {
+		Lib.assertTrue(size > 0);
+
+		int last = --size;
+		long time = times[last], id = ids[last];
+		String type = types[last];
+		Runnable handler = handlers[last];
+
+		types[last] = null;
+		handlers[last] = null;
+
+		if (last == 0)
+			return;
+
+		// sift the last event down from the root
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= last)
+				break;
+
+			if (child + 1 < last && before(times[child + 1], ids[child + 1],
+					child))
+				child++;
+
+			if (before(time, id, child))
+				break;
+
+			move(child, i);
+			i = child;
+		}
+
+		set(i, time, id, type, handler);
+	}
+
+	/**
+	 * Return a copy of this queue, which can be emptied to list the pending
+	 * interrupts in order.
+	 *
+	 * @return a copy of the queue.
+	 */
+	EventQueue copy() {
+		EventQueue copy = new EventQueue(Math.max(1, size));
+
+		System.arraycopy(times, 0, copy.times, 0, size);
+		System.arraycopy(ids, 0, copy.ids, 0, size);
+		System.arraycopy(types, 0, copy.types, 0, size);
+		System.arraycopy(handlers, 0, copy.handlers, 0, size);
+		copy.size = size;
+		copy.numEventsCreated = numEventsCreated;
+
+		return copy;
+	}
+
+	private boolean before(long time, long id, int i) {
+		return time < times[i] || (time == times[i] && id < ids[i]);
+	}
+
+	private void move(int from, int to) {
+		times[to] = times[from];
+		ids[to] = ids[from];
+		types[to] = types[from];
+		handlers[to] = handlers[from];
+	}
+
+	private void set(int i, long time, long id, String type, Runnable handler) {
+		times[i] = time;
+		ids[i] = id;
+		types[i] = type;
+		handlers[i] = handler;
+	}
+
+	private void grow() {
+		int capacity = times.length * 2;
+
+		long[] newTimes = new long[capacity];
+		long[] newIds = new long[capacity];
+		String[] newTypes = new String[capacity];
+		Runnable[] newHandlers = new Runnable[capacity];
+
+		System.arraycopy(times, 0, newTimes, 0, size);
+		System.arraycopy(ids, 0, newIds, 0, size);
+		System.arraycopy(types, 0, newTypes, 0, size);
+		System.arraycopy(handlers, 0, newHandlers, 0, size);
+
+		times = newTimes;
+		ids = newIds;
+		types = newTypes;
+		handlers = newHandlers;
+	}
+
+	private long numEventsCreated = 0;
+
+	private int size = 0;
+
+	private long[] times, ids;
+
+	private String[] types;
+
+	private Runnable[] handlers;
+}
@@ -4,10 +4,6 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
-
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
  * hardware provides a method (<tt>setStatus()</tt>) to enable or disable
@@ -52,7 +48,7 @@ public final class Interrupt {
 		privilege.interrupt = new InterruptPrivilege();
 
 		enabled = false;
-		pending = new TreeSet<PendingInterrupt>();
+		pending = new EventQueue();
 	}
 
 	/**
@@ -96,7 +92,7 @@ public final class Interrupt {
 		enabled = status;
 
 		if (oldStatus == false && status == true)
-			tick(true);
+			tick(true, 1);
 
 		return oldStatus;
 	}
@@ -119,28 +115,56 @@ public final class Interrupt {
 		return !enabled;
 	}
 
+	/**
+	 * Advance the simulated time to just before the next pending interrupt is
+	 * due. Interrupts must be disabled. This has the same effect as enabling
+	 * and disabling interrupts over and over, with nothing else happening in
+	 * between, up to the point where the next <tt>enable()</tt> would invoke
+	 * an interrupt handler. The idle thread uses this to skip over time in
+	 * which every other thread is blocked.
+	 */
+	public void idle() {
+		Lib.assertTrue(disabled());
+
+		// every tick must be seen individually to be traced
+		if (Lib.test(dbgInt) || pending.isEmpty())
+			return;
+
+		Stats stats = privilege.stats;
+
+		long ticks = (pending.firstTime() - stats.totalTicks
+				+ Stats.KernelTick - 1)
+				/ Stats.KernelTick - 1;
+
+		if (ticks > 0) {
+			stats.kernelTicks += ticks * Stats.KernelTick;
+			stats.totalTicks += ticks * Stats.KernelTick;
+		}
+	}
+
 	private void schedule(long when, String type, Runnable handler) {
 		Lib.assertTrue(when > 0);
 
 		long time = privilege.stats.totalTicks + when;
-		PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
 		Lib.debug(dbgInt, "Scheduling the " + type
 				+ " interrupt handler at time = " + time);
 
-		pending.add(toOccur);
+		pending.add(time, type, handler);
 	}
 
-	private void tick(boolean inKernelMode) {
+	private void tick(boolean inKernelMode, int count) {
 		Stats stats = privilege.stats;
 
+		Lib.assertTrue(count > 0);
+
 		if (inKernelMode) {
-			stats.kernelTicks += Stats.KernelTick;
-			stats.totalTicks += Stats.KernelTick;
+			stats.kernelTicks += (long) Stats.KernelTick * count;
+			stats.totalTicks += (long) Stats.KernelTick * count;
 		}
 		else {
-			stats.userTicks += Stats.UserTick;
-			stats.totalTicks += Stats.UserTick;
+			stats.userTicks += (long) Stats.UserTick * count;
+			stats.totalTicks += (long) Stats.UserTick * count;
 		}
 
 		if (Lib.test(dbgInt))
@@ -151,6 +175,17 @@ public final class Interrupt {
 		enabled = true;
 	}
 
+	private long timeUntilDue() {
+		// every tick must be seen individually to be traced
+		if (Lib.test(dbgInt))
+			return 1;
+
+		if (pending.isEmpty())
+			return Long.MAX_VALUE;
+
+		return pending.firstTime() - privilege.stats.totalTicks;
+	}
+
 	private void checkIfDue() {
 		long time = privilege.stats.totalTicks;
 
@@ -162,24 +197,22 @@ public final class Interrupt {
 		if (pending.isEmpty())
 			return;
 
-		if (((PendingInterrupt) pending.first()).time > time)
+		if (pending.firstTime() > time)
 			return;
 
 		Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 
-		while (!pending.isEmpty()
-				&& ((PendingInterrupt) pending.first()).time <= time) {
-			PendingInterrupt next = (PendingInterrupt) pending.first();
-			pending.remove(next);
-
-			Lib.assertTrue(next.time <= time);
+		while (!pending.isEmpty() && pending.firstTime() <= time) {
+			String type = pending.firstType();
+			Runnable handler = pending.firstHandler();
+			pending.removeFirst();
 
 			if (privilege.processor != null)
 				privilege.processor.flushPipe();
 
-			Lib.debug(dbgInt, "  " + next.type);
+			Lib.debug(dbgInt, "  " + type);
 
-			next.handler.run();
+			handler.run();
 		}
 
 		Lib.debug(dbgInt, "  (end of list)");
@@ -190,55 +223,20 @@ public final class Interrupt {
 				+ ", interrupts " + (enabled ? "on" : "off"));
 		System.out.println("Pending interrupts:");
 
-		for (Iterator i = pending.iterator(); i.hasNext();) {
-			PendingInterrupt toOccur = (PendingInterrupt) i.next();
-			System.out.println("  " + toOccur.type + ", scheduled at "
-					+ toOccur.time);
+		for (EventQueue sorted = pending.copy(); !sorted.isEmpty(); sorted
+				.removeFirst()) {
+			System.out.println("  " + sorted.firstType() + ", scheduled at "
+					+ sorted.firstTime());
 		}
 
 		System.out.println("  (end of list)");
 	}
 
-	private class PendingInterrupt implements Comparable {
-		PendingInterrupt(long time, String type, Runnable handler) {
-			this.time = time;
-			this.type = type;
-			this.handler = handler;
-			this.id = numPendingInterruptsCreated++;
-		}
-
-		public int compareTo(Object o) {
-			PendingInterrupt toOccur = (PendingInterrupt) o;
-
-			// can't return 0 for unequal objects, so check all fields
-			if (time < toOccur.time)
-				return -1;
-			else if (time > toOccur.time)
-				return 1;
-			else if (id < toOccur.id)
-				return -1;
-			else if (id > toOccur.id)
-				return 1;
-			else
-				return 0;
-		}
-
-		long time;
-
-		String type;
-
-		Runnable handler;
-
-		private long id;
-	}
-
-	private long numPendingInterruptsCreated = 0;
-
 	private Privilege privilege;
 
 	private boolean enabled;
 
-	private TreeSet<PendingInterrupt> pending;
+	private EventQueue pending;
 
 	private static final char dbgInt = 'i';
 
@@ -248,7 +246,15 @@ public final class Interrupt {
 		}
 
 		public void tick(boolean inKernelMode) {
-			Interrupt.this.tick(inKernelMode);
+			Interrupt.this.tick(inKernelMode, 1);
+		}
+
+		public void tick(boolean inKernelMode, int count) {
+			Interrupt.this.tick(inKernelMode, count);
+		}
+
+		public long timeUntilDue() {
+			return Interrupt.this.timeUntilDue();
 		}
 	}
 }
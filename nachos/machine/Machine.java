@@ -113,6 +113,46 @@ public final class Machine {
 		terminate();
 	}
 
+	/**
+	 * Add paging done by the kernel to the statistics printed when Nachos
+	 * halts. The machine cannot see these itself, since the kernel reads
+	 * executables and swaps pages through ordinary files.
+	 * 
+	 * @param pageIns the number of pages brought into memory.
+	 * @param coffReads the number of pages read from executables.
+	 * @param swapReads the number of pages read from swap.
+	 * @param swapWrites the number of pages written to swap.
+	 * @param evictions the number of pages evicted from memory.
+	 */
+	public static void recordPaging(int pageIns, int coffReads,
+			int swapReads, int swapWrites, int evictions) {
+		stats.numPageIns += pageIns;
+		stats.numCOFFReads += coffReads;
+		stats.numSwapReads += swapReads;
+		stats.numSwapWrites += swapWrites;
+		stats.numEvictions += evictions;
+	}
+
+	/**
+	 * Name the page replacement policy the kernel uses, so that it is printed
+	 * with the statistics when Nachos halts.
+	 * 
+	 * @param name the name of the policy.
+	 */
+	public static void setReplacementPolicy(String name) {
+		stats.replacementPolicy = name;
+	}
+
+	/**
+	 * Name the disk scheduler the kernel uses, so that it is printed with the
+	 * statistics when Nachos halts.
+	 * 
+	 * @param name the name of the scheduler.
+	 */
+	public static void setDiskScheduler(String name) {
+		stats.diskScheduler = name;
+	}
+
 	/**
 	 * Return an array containing all command line arguments.
 	 * 
@@ -198,6 +238,9 @@ public final class Machine {
 		if (Config.getBoolean("Machine.stubFileSystem"))
 			stubFileSystem = new StubFileSystem(privilege, testDirectory);
 
+		if (Config.getBoolean("Machine.disk"))
+			disk = new Disk(privilege);
+
 		if (Config.getBoolean("Machine.networkLink"))
 			networkLink = new NetworkLink(privilege);
 	}
@@ -361,6 +404,15 @@ public final class Machine {
 		return stubFileSystem;
 	}
 
+	/**
+	 * Return the disk.
+	 * 
+	 * @return the disk, or <tt>null</tt> if it is not present.
+	 */
+	public static Disk disk() {
+		return disk;
+	}
+
 	/**
 	 * Return the network link.
 	 * 
@@ -391,6 +443,8 @@ public final class Machine {
 
 	private static FileSystem stubFileSystem = null;
 
+	private static Disk disk = null;
+
 	private static NetworkLink networkLink = null;
 
 	private static AutoGrader autoGrader = null;
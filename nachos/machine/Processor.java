@@ -45,12 +45,45 @@ public final class Processor {
 		for (int i = 0; i < numUserRegisters; i++)
 			registers[i] = 0;
 
+		mipsExceptions = new MipsException[exceptionNames.length];
+		for (int i = 0; i < exceptionNames.length; i++)
+			mipsExceptions[i] = new MipsException(i);
+
 		mainMemory = new byte[pageSize * numPhysPages];
 
+		decodeCache = new DecodedInstruction[mainMemory.length / 4];
+		for (int i = 0; i < decodeCache.length; i++)
+			decodeCache[i] = new DecodedInstruction();
+
+		String engine = Config.getString("Processor.engine", "interpreter");
+		if (engine.equals("block")) {
+			blockCache = new BasicBlock[mainMemory.length / 4];
+			inBlock = new boolean[mainMemory.length / 4];
+		}
+		else {
+			Lib.assertTrue(engine.equals("interpreter"),
+					"unknown Processor.engine: " + engine);
+			blockCache = null;
+			inBlock = null;
+		}
+
+		batchTicks = Config.getBoolean("Processor.batchTicks", false);
+
 		if (usingTLB) {
+			tlbSize = Config.getInteger("Processor.tlbSize", tlbSize);
+			tlbAssociativity = Config.getInteger("Processor.tlbAssociativity",
+					tlbSize);
+			Lib.assertTrue(tlbSize > 0 && tlbAssociativity > 0
+					&& tlbSize % tlbAssociativity == 0,
+					"bad Processor.tlbSize or Processor.tlbAssociativity");
+			tlbSets = tlbSize / tlbAssociativity;
+
 			translations = new TranslationEntry[tlbSize];
 			for (int i = 0; i < tlbSize; i++)
 				translations[i] = new TranslationEntry();
+
+			privilege.stats.tlbSetHits = new int[tlbSets];
+			privilege.stats.tlbSetMisses = new int[tlbSets];
 		}
 		else {
 			translations = null;
@@ -93,6 +126,12 @@ public final class Processor {
 
 		Instruction inst = new Instruction();
 
+		// the block engine does not print disassembly, so let the interpreter
+		// handle any run with processor debugging turned on
+		if (blockCache != null && !Lib.test(dbgProcessor)
+				&& !Lib.test(dbgDisassemble) && !Lib.test(dbgFullDisassemble))
+			runBlocks(inst);
+
 		while (true) {
 			try {
 				inst.run();
@@ -101,10 +140,127 @@ public final class Processor {
 				e.handle();
 			}
 
-			privilege.interrupt.tick(false);
+			tick();
 		}
 	}
 
+	/**
+	 * Execute instructions a basic block at a time. Never returns.
+	 * 
+	 * <p>
+	 * Entering a block translates the PC exactly like an instruction fetch
+	 * would. The remaining instructions of the block lie on the same page, so
+	 * as long as nothing has changed address translation since then
+	 * (<tt>translationEpoch</tt>), fetching them would have the same effect
+	 * and is skipped. Every instruction still ticks the interrupt controller
+	 * once, so simulated time advances exactly as in the interpreter.
+	 * 
+	 * @param fallback the interpreter, used for rarely executed instructions.
+	 */
+	private void runBlocks(Instruction fallback) {
+		while (true) {
+			BasicBlock block;
+
+			try {
+				block = enterBlock(fallback);
+			}
+			catch (MipsException e) {
+				e.handle();
+				tick();
+				continue;
+			}
+
+			int epoch = translationEpoch;
+			int pc = registers[regPC];
+
+			for (int i = 0; i < block.code.length; i++) {
+				try {
+					block.code[i].run();
+				}
+				catch (MipsException e) {
+					e.handle();
+				}
+
+				tick();
+
+				pc += 4;
+				if (registers[regPC] != pc || translationEpoch != epoch)
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Charge one user tick for the instruction just executed.
+	 * 
+	 * <p>
+	 * With <tt>Processor.batchTicks</tt> set, the ticks are handed to the
+	 * interrupt controller in one go, once enough have accumulated for the
+	 * next pending interrupt to fall due. None of the skipped ticks would have
+	 * invoked an interrupt handler, so simulated time advances exactly as if
+	 * every instruction had ticked separately.
+	 */
+	private void tick() {
+		if (++ticksOwed < ticksBudget)
+			return;
+
+		privilege.interrupt.tick(false, ticksOwed);
+		ticksOwed = 0;
+
+		if (batchTicks) {
+			long time = privilege.interrupt.timeUntilDue();
+			if (time >= (long) Integer.MAX_VALUE * Stats.UserTick)
+				ticksBudget = Integer.MAX_VALUE;
+			else
+				ticksBudget = (int) Math.max(1, (time + Stats.UserTick - 1)
+						/ Stats.UserTick);
+		}
+	}
+
+	/**
+	 * Hand any batched ticks to the interrupt controller before the kernel gets
+	 * to look at the clock. The kernel may also schedule new interrupts, so
+	 * the instruction that trapped ticks on its own.
+	 */
+	private void chargeTicks() {
+		if (ticksOwed > 0)
+			privilege.interrupt.tick(false, ticksOwed);
+
+		ticksOwed = 0;
+		ticksBudget = 1;
+	}
+
+	/**
+	 * Find the block starting at the current PC, compiling it if it is not
+	 * cached or if the code it was compiled from has since been overwritten.
+	 * 
+	 * @param fallback the interpreter, used for rarely executed instructions.
+	 * @return the block to run.
+	 * @exception MipsException if fetching the first instruction failed.
+	 */
+	private BasicBlock enterBlock(Instruction fallback) throws MipsException {
+		int paddr = translate(registers[regPC], 4, false, true);
+		int index = paddr >>> 2;
+
+		BasicBlock block = blockCache[index];
+		if (block != null && block.checkedEpoch != translationEpoch) {
+			for (int i = 0; i < block.words.length; i++) {
+				if (Lib.bytesToInt(mainMemory, paddr + i * 4) != block.words[i]) {
+					block = null;
+					break;
+				}
+			}
+		}
+
+		if (block == null) {
+			block = new BasicBlock(paddr, fallback);
+			blockCache[index] = block;
+		}
+
+		block.checkedEpoch = translationEpoch;
+		return block;
+	}
+
 	/**
 	 * Read and return the contents of the specified CPU register.
 	 * 
@@ -175,6 +331,7 @@ public final class Processor {
 		Lib.assertTrue(!usingTLB);
 
 		this.translations = pageTable;
+		translationEpoch++;
 	}
 
 	/**
@@ -188,6 +345,37 @@ public final class Processor {
 		return tlbSize;
 	}
 
+	/**
+	 * Return the number of entries in each set of this processor's TLB. The
+	 * TLB is fully associative if this equals <tt>getTLBSize()</tt>.
+	 * 
+	 * @return the associativity of this processor's TLB.
+	 */
+	public int getTLBAssociativity() {
+		Lib.assertTrue(usingTLB);
+
+		return tlbAssociativity;
+	}
+
+	/**
+	 * Return the set of the TLB that can hold a translation for the specified
+	 * virtual page. Set <i>s</i> consists of TLB entries
+	 * <tt><i>s</i> * getTLBAssociativity()</tt> through
+	 * <tt>(<i>s</i> + 1) * getTLBAssociativity() - 1</tt>.
+	 * 
+	 * @param vpn the virtual page number.
+	 * @return the TLB set for the virtual page.
+	 */
+	public int getTLBSet(int vpn) {
+		Lib.assertTrue(usingTLB);
+
+		return tlbSetOf(vpn);
+	}
+
+	private int tlbSetOf(int vpn) {
+		return (int) ((vpn & 0xFFFFFFFFL) % tlbSets);
+	}
+
 	/**
 	 * Returns the specified TLB entry.
 	 * 
@@ -205,8 +393,9 @@ public final class Processor {
 	 * Fill the specified TLB entry.
 	 * 
 	 * <p>
-	 * The TLB is fully associative, so the location of an entry within the TLB
-	 * does not affect anything.
+	 * If the TLB is fully associative (the default), the location of an entry
+	 * within the TLB does not affect anything. Otherwise the entry is only
+	 * used if it lies in the set given by <tt>getTLBSet(entry.vpn)</tt>.
 	 * 
 	 * @param number the index into the TLB.
 	 * @param entry the new contents of the TLB entry.
@@ -216,6 +405,7 @@ public final class Processor {
 		Lib.assertTrue(number >= 0 && number < tlbSize);
 
 		translations[number] = new TranslationEntry(entry);
+		translationEpoch++;
 	}
 
 	/**
@@ -284,14 +474,21 @@ public final class Processor {
 	 * make sure a read-only page is not being written, make sure the resulting
 	 * physical page is valid, and then return the resulting physical address.
 	 * 
+	 * <p>
+	 * The last few successful translations are remembered, separately for
+	 * instruction fetches and data accesses. A remembered translation is used
+	 * without repeating the checks, since nothing it depends on can change
+	 * until <tt>translationEpoch</tt> does.
+	 * 
 	 * @param vaddr the virtual address to translate.
 	 * @param size the size of the memory reference (must be 1, 2, or 4).
 	 * @param writing <tt>true</tt> if the memory reference is a write.
+	 * @param fetching <tt>true</tt> if this is an instruction fetch.
 	 * @return the physical address.
 	 * @exception MipsException if a translation error occurred.
 	 */
-	private int translate(int vaddr, int size, boolean writing)
-			throws MipsException {
+	private int translate(int vaddr, int size, boolean writing,
+			boolean fetching) throws MipsException {
 		if (Lib.test(dbgProcessor))
 			System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr)
 					+ (writing ? ", write" : ", read..."));
@@ -299,66 +496,78 @@ public final class Processor {
 		// check alignment
 		if ((vaddr & (size - 1)) != 0) {
 			Lib.debug(dbgProcessor, "\t\talignment error");
-			throw new MipsException(exceptionAddressError, vaddr);
+			throw mipsException(exceptionAddressError, vaddr);
 		}
 
 		// calculate virtual page number and offset from the virtual address
 		int vpn = pageFromAddress(vaddr);
 		int offset = offsetFromAddress(vaddr);
 
-		TranslationEntry entry = null;
+		if (recentEpoch != translationEpoch)
+			flushRecentTranslations();
+
+		int[] recentVpns = fetching ? recentFetchVpns : recentDataVpns;
+		TranslationEntry[] recentEntries = fetching ? recentFetchEntries
+				: recentDataEntries;
+		int slot = vpn & (numRecentTranslations - 1);
+
+		TranslationEntry entry = recentEntries[slot];
+		if (recentVpns[slot] == vpn && !(writing && entry.readOnly)) {
+			if (usingTLB)
+				privilege.stats.tlbSetHits[tlbSetOf(vpn)]++;
+
+			entry.used = true;
+			if (writing)
+				entry.dirty = true;
+
+			return (entry.ppn * pageSize) + offset;
+		}
+
+		entry = null;
 
 		// if not using a TLB, then the vpn is an index into the table
 		if (!usingTLB) {
-			if (translations == null){
-				System.out.println("translation is null");
-			}
-			if (vpn >= translations.length){
-				System.out.println("vpn > length" + vpn);
-			}
-			// if (translations[vpn] == null){
-			// 	System.out.println("translation vpn is null");
-			// }
-			// if (!translations[vpn].valid){
-			// 	System.out.println("translation vpn is invalid");
-			// }
-			//System.out.println("The vpn is: " + vpn);
 			if (translations == null || vpn >= translations.length
 					|| translations[vpn] == null || !translations[vpn].valid) {
-				//System.out.println("The question is page fault: we all know it.");
 				privilege.stats.numPageFaults++;
 				Lib.debug(dbgProcessor, "\t\tpage fault");
-				throw new MipsException(exceptionPageFault, vaddr);
+				throw mipsException(exceptionPageFault, vaddr);
 			}
 
 			entry = translations[vpn];
 		}
-		// else, look through all TLB entries for matching vpn
+		// else, look through the TLB entries in this vpn's set
 		else {
-			for (int i = 0; i < tlbSize; i++) {
+			int set = tlbSetOf(vpn);
+			int first = set * tlbAssociativity;
+			for (int i = first; i < first + tlbAssociativity; i++) {
 				if (translations[i].valid && translations[i].vpn == vpn) {
 					entry = translations[i];
 					break;
 				}
 			}
-			if (entry == null) {
+			if (entry != null) {
+				privilege.stats.tlbSetHits[set]++;
+			}
+			else {
+				privilege.stats.tlbSetMisses[set]++;
 				privilege.stats.numTLBMisses++;
 				Lib.debug(dbgProcessor, "\t\tTLB miss");
-				throw new MipsException(exceptionTLBMiss, vaddr);
+				throw mipsException(exceptionTLBMiss, vaddr);
 			}
 		}
 
 		// check if trying to write a read-only page
 		if (entry.readOnly && writing) {
 			Lib.debug(dbgProcessor, "\t\tread-only exception");
-			throw new MipsException(exceptionReadOnly, vaddr);
+			throw mipsException(exceptionReadOnly, vaddr);
 		}
 
 		// check if physical page number is out of range
 		int ppn = entry.ppn;
 		if (ppn < 0 || ppn >= numPhysPages) {
 			Lib.debug(dbgProcessor, "\t\tbad ppn");
-			throw new MipsException(exceptionBusError, vaddr);
+			throw mipsException(exceptionBusError, vaddr);
 		}
 
 		// set used and dirty bits as appropriate
@@ -366,6 +575,9 @@ public final class Processor {
 		if (writing)
 			entry.dirty = true;
 
+		recentVpns[slot] = vpn;
+		recentEntries[slot] = entry;
+
 		int paddr = (ppn * pageSize) + offset;
 
 		if (Lib.test(dbgProcessor))
@@ -373,6 +585,21 @@ public final class Processor {
 		return paddr;
 	}
 
+	/**
+	 * Forget all remembered translations, and note the epoch they were
+	 * forgotten in.
+	 */
+	private void flushRecentTranslations() {
+		for (int i = 0; i < numRecentTranslations; i++) {
+			recentFetchVpns[i] = -1;
+			recentFetchEntries[i] = null;
+			recentDataVpns[i] = -1;
+			recentDataEntries[i] = null;
+		}
+
+		recentEpoch = translationEpoch;
+	}
+
 	/**
 	 * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
 	 * and return the result.
@@ -389,7 +616,8 @@ public final class Processor {
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false),
+		int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false,
+				false),
 				size);
 
 		if (Lib.test(dbgProcessor))
@@ -416,7 +644,13 @@ public final class Processor {
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size, value);
+		int paddr = translate(vaddr, size, true, false);
+
+		// self-modifying code: make the block engine recheck its blocks
+		if (inBlock != null && inBlock[paddr >>> 2])
+			translationEpoch++;
+
+		Lib.bytesFromInt(mainMemory, paddr, size, value);
 	}
 
 	/**
@@ -545,6 +779,9 @@ public final class Processor {
 	/** The total number of software-accessible CPU registers. */
 	public static final int numUserRegisters = 38;
 
+	/** The preallocated exception for each cause. */
+	private MipsException[] mipsExceptions;
+
 	/** Provides privilege to this processor. */
 	private Privilege privilege;
 
@@ -566,6 +803,21 @@ public final class Processor {
 	/** Number of TLB entries. */
 	private int tlbSize = 4;
 
+	/** Number of TLB entries in each set. */
+	private int tlbAssociativity;
+
+	/** Number of sets in the TLB. */
+	private int tlbSets;
+
+	/** <tt>true</tt> if user ticks are charged in batches. */
+	private boolean batchTicks;
+
+	/** User ticks executed but not yet charged. */
+	private int ticksOwed = 0;
+
+	/** Number of user ticks to accumulate before charging them. */
+	private int ticksBudget = 1;
+
 	/**
 	 * Either an associative or direct-mapped set of translation entries,
 	 * depending on whether there is a TLB.
@@ -584,6 +836,43 @@ public final class Processor {
 	/** Main memory for user programs. */
 	private byte[] mainMemory;
 
+	/** Predecoded instructions, indexed by physical word address. */
+	private DecodedInstruction[] decodeCache;
+
+	/**
+	 * Compiled basic blocks, indexed by the physical word address of their
+	 * first instruction, or <tt>null</tt> if using the interpreter.
+	 */
+	private BasicBlock[] blockCache;
+
+	/** Marks the physical words that belong to some compiled block. */
+	private boolean[] inBlock;
+
+	/**
+	 * Incremented whenever address translation or the contents of compiled
+	 * code may have changed behind the processor's back: a new page table or
+	 * TLB entry, any exception (the kernel may edit page table entries in its
+	 * handler), and stores into compiled code.
+	 */
+	private int translationEpoch = 0;
+
+	/**
+	 * Number of remembered translations for each of instruction fetches and
+	 * data accesses. Must be a power of two.
+	 */
+	private static final int numRecentTranslations = 4;
+
+	/** Recently used virtual page numbers, or -1 for an empty slot. */
+	private int[] recentFetchVpns = new int[numRecentTranslations],
+			recentDataVpns = new int[numRecentTranslations];
+
+	/** The translation entries matching <tt>recent*Vpns</tt>. */
+	private TranslationEntry[] recentFetchEntries = new TranslationEntry[numRecentTranslations],
+			recentDataEntries = new TranslationEntry[numRecentTranslations];
+
+	/** The <tt>translationEpoch</tt> the remembered translations belong to. */
+	private int recentEpoch = -1;
+
 	/** The kernel exception handler, called on every user exception. */
 	private Runnable exceptionHandler = null;
 
@@ -599,21 +888,55 @@ public final class Processor {
 		}
 	}
 
+	/**
+	 * Return the exception object for the specified cause, with no bad
+	 * virtual address.
+	 * 
+	 * @param cause the cause of the exception.
+	 * @return the exception to throw.
+	 */
+	private MipsException mipsException(int cause) {
+		MipsException e = mipsExceptions[cause];
+		e.hasBadVAddr = false;
+		return e;
+	}
+
+	/**
+	 * Return the exception object for the specified cause, recording the
+	 * virtual address that caused it.
+	 * 
+	 * @param cause the cause of the exception.
+	 * @param badVAddr the virtual address that caused the exception.
+	 * @return the exception to throw.
+	 */
+	private MipsException mipsException(int cause, int badVAddr) {
+		MipsException e = mipsExceptions[cause];
+		e.hasBadVAddr = true;
+		e.badVAddr = badVAddr;
+		return e;
+	}
+
+	/**
+	 * A processor exception. There is one preallocated instance per cause, and
+	 * no stack trace is recorded, so raising one allocates nothing. This is
+	 * safe because <tt>handle()</tt> copies the cause and bad address into the
+	 * CPU registers before the kernel handler can cause another exception.
+	 */
 	private class MipsException extends Exception {
 		public MipsException(int cause) {
+			super(null, null, false, false);
+
 			Lib.assertTrue(cause >= 0 && cause < exceptionNames.length);
 
 			this.cause = cause;
 		}
 
-		public MipsException(int cause, int badVAddr) {
-			this(cause);
+		public void handle() {
+			chargeTicks();
 
-			hasBadVAddr = true;
-			this.badVAddr = badVAddr;
-		}
+			// the kernel may change address translation or memory
+			translationEpoch++;
 
-		public void handle() {
 			writeRegister(regCause, cause);
 
 			if (hasBadVAddr)
@@ -657,78 +980,57 @@ public final class Processor {
 				System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
 						+ "\t");
 
-			value = readMem(registers[regPC], 4);
-		}
+			if (Lib.test(dbgProcessor))
+				System.out.println("\treadMem vaddr=0x"
+						+ Lib.toHexString(registers[regPC]) + ", size=4");
 
-		private void decode() {
-			op = Lib.extract(value, 26, 6);
-			rs = Lib.extract(value, 21, 5);
-			rt = Lib.extract(value, 16, 5);
-			rd = Lib.extract(value, 11, 5);
-			sh = Lib.extract(value, 6, 5);
-			func = Lib.extract(value, 0, 6);
-			target = Lib.extract(value, 0, 26);
-			imm = Lib.extend(value, 0, 16);
+			int paddr = translate(registers[regPC], 4, false, true);
+			value = Lib.bytesToInt(mainMemory, paddr, 4);
+			decoded = decodeCache[paddr >>> 2];
 
-			Mips info;
-			switch (op) {
-			case 0:
-				info = Mips.specialtable[func];
-				break;
-			case 1:
-				info = Mips.regimmtable[rt];
-				break;
-			default:
-				info = Mips.optable[op];
-				break;
-			}
+			if (Lib.test(dbgProcessor))
+				System.out.println("\t\tvalue read=0x"
+						+ Lib.toHexString(value, 8));
+		}
 
-			operation = info.operation;
-			name = info.name;
-			format = info.format;
-			flags = info.flags;
+		private void decode() {
+			// the cached entry is tagged with the instruction word it was
+			// decoded from, so any write to the word invalidates it
+			if (!decoded.valid || decoded.value != value)
+				decoded.decode(value);
+
+			op = decoded.op;
+			rs = decoded.rs;
+			rt = decoded.rt;
+			rd = decoded.rd;
+			sh = decoded.sh;
+			func = decoded.func;
+			target = decoded.target;
+			imm = decoded.imm;
+
+			operation = decoded.operation;
+			name = decoded.name;
+			format = decoded.format;
+			flags = decoded.flags;
+			size = decoded.size;
+			dstReg = decoded.dstReg;
 
 			mask = 0xFFFFFFFF;
 			branch = true;
 
-			// get memory access size
-			if (test(Mips.SIZEB))
-				size = 1;
-			else if (test(Mips.SIZEH))
-				size = 2;
-			else if (test(Mips.SIZEW))
-				size = 4;
-			else
-				size = 0;
-
 			// get nextPC
 			nextPC = registers[regNextPC] + 4;
 
-			// get dstReg
-			if (test(Mips.DSTRA))
-				dstReg = regRA;
-			else if (format == Mips.IFMT)
-				dstReg = rt;
-			else if (format == Mips.RFMT)
-				dstReg = rd;
-			else
-				dstReg = -1;
-
 			// get jtarget
 			if (format == Mips.RFMT)
 				jtarget = registers[rs];
 			else if (format == Mips.IFMT)
-				jtarget = registers[regNextPC] + (imm << 2);
+				jtarget = registers[regNextPC] + decoded.branchOffset;
 			else if (format == Mips.JFMT)
 				jtarget = (registers[regNextPC] & 0xF0000000) | (target << 2);
 			else
 				jtarget = -1;
 
-			// get imm
-			if (test(Mips.UNSIGNED)) {
-				imm &= 0xFFFF;
-			}
-
 			// get addr
 			addr = registers[rs] + imm;
 
@@ -893,15 +1195,13 @@ public final class Processor {
 				registers[regHi] = (int) Lib.extract(dst, 32, 32);
 				break;
 			case Mips.DIV:
-				try {
-					registers[regLo] = (int) (src1 / src2);
-					registers[regHi] = (int) (src1 % src2);
-					if (registers[regLo] * src2 + registers[regHi] != src1)
-						throw new ArithmeticException();
-				}
-				catch (ArithmeticException e) {
-					throw new MipsException(exceptionOverflow);
-				}
+				if (src2 == 0)
+					throw mipsException(exceptionOverflow);
+
+				registers[regLo] = (int) (src1 / src2);
+				registers[regHi] = (int) (src1 % src2);
+				if (registers[regLo] * src2 + registers[regHi] != src1)
+					throw mipsException(exceptionOverflow);
 				break;
 
 			case Mips.SLL:
@@ -970,7 +1270,7 @@ public final class Processor {
 				break;
 
 			case Mips.SYSCALL:
-				throw new MipsException(exceptionSyscall);
+				throw mipsException(exceptionSyscall);
 
 			case Mips.LOAD:
 				value = readMem(addr, size);
@@ -1041,7 +1341,7 @@ public final class Processor {
 				System.err.println("Warning: encountered unimplemented inst");
 
 			case Mips.INVALID:
-				throw new MipsException(exceptionIllegalInstruction);
+				throw mipsException(exceptionIllegalInstruction);
 
 			default:
 				Lib.assertNotReached();
@@ -1051,7 +1351,7 @@ public final class Processor {
 		private void writeBack() throws MipsException {
 			// if instruction is signed, but carry bit !+ sign bit, throw
 			if (test(Mips.OVERFLOW) && Lib.test(dst, 31) != Lib.test(dst, 32))
-				throw new MipsException(exceptionOverflow);
+				throw mipsException(exceptionOverflow);
 
 			if (test(Mips.DELAYEDLOAD))
 				delayedLoad(dstReg, (int) dst, mask);
@@ -1084,6 +1384,8 @@ public final class Processor {
 		}
 
 		// state used to execute a single instruction
+		DecodedInstruction decoded;
+
 		int value, op, rs, rt, rd, sh, func, target, imm;
 
 		int operation, format, flags;
@@ -1101,6 +1403,323 @@ public final class Processor {
 		boolean branch;
 	}
 
+	/**
+	 * The register-independent part of decoding a single instruction word.
+	 * One of these is kept for every word of physical memory, so a loop body
+	 * is only decoded the first time it runs. Each entry remembers the word
+	 * it was decoded from, and is decoded again whenever the word in memory
+	 * no longer matches (the page was written, or a different page was
+	 * mapped into the frame).
+	 */
+	private static class DecodedInstruction {
+		void decode(int value) {
+			this.value = value;
+
+			op = Lib.extract(value, 26, 6);
+			rs = Lib.extract(value, 21, 5);
+			rt = Lib.extract(value, 16, 5);
+			rd = Lib.extract(value, 11, 5);
+			sh = Lib.extract(value, 6, 5);
+			func = Lib.extract(value, 0, 6);
+			target = Lib.extract(value, 0, 26);
+			imm = Lib.extend(value, 0, 16);
+
+			Mips info;
+			switch (op) {
+			case 0:
+				info = Mips.specialtable[func];
+				break;
+			case 1:
+				info = Mips.regimmtable[rt];
+				break;
+			default:
+				info = Mips.optable[op];
+				break;
+			}
+
+			operation = info.operation;
+			name = info.name;
+			format = info.format;
+			flags = info.flags;
+
+			// get memory access size
+			if (Lib.test(Mips.SIZEB, flags))
+				size = 1;
+			else if (Lib.test(Mips.SIZEH, flags))
+				size = 2;
+			else if (Lib.test(Mips.SIZEW, flags))
+				size = 4;
+			else
+				size = 0;
+
+			// get dstReg
+			if (Lib.test(Mips.DSTRA, flags))
+				dstReg = regRA;
+			else if (format == Mips.IFMT)
+				dstReg = rt;
+			else if (format == Mips.RFMT)
+				dstReg = rd;
+			else
+				dstReg = -1;
+
+			// branch offsets use the sign-extended immediate
+			branchOffset = imm << 2;
+
+			// get imm
+			if (Lib.test(Mips.UNSIGNED, flags)) {
+				imm &= 0xFFFF;
+			}
+
+			valid = true;
+		}
+
+		boolean valid = false;
+
+		int value, op, rs, rt, rd, sh, func, target, imm, branchOffset;
+
+		int operation, format, flags;
+
+		String name;
+
+		int size, dstReg;
+	}
+
+	/** A single instruction compiled by the block engine. */
+	private interface CompiledInstruction {
+		void run() throws MipsException;
+	}
+
+	/**
+	 * A run of straight-line code on one page, ending after a branch or jump
+	 * and its delay slot. Each instruction is compiled into a closure that
+	 * performs the same register and memory updates as
+	 * <tt>Instruction.run()</tt>, including delayed loads and the PC/nextPC
+	 * shuffle, without going through the generic decode and execute stages.
+	 */
+	private class BasicBlock {
+		BasicBlock(int paddr, Instruction fallback) {
+			int pageEnd = (paddr / pageSize + 1) * pageSize;
+
+			int length = 0;
+			boolean delaySlot = false;
+			for (int addr = paddr; addr < pageEnd && length < maxBlockLength;) {
+				DecodedInstruction d = decodeCache[addr >>> 2];
+				int value = Lib.bytesToInt(mainMemory, addr);
+				if (!d.valid || d.value != value)
+					d.decode(value);
+
+				length++;
+				addr += 4;
+
+				if (delaySlot || d.operation == Mips.SYSCALL
+						|| d.operation == Mips.INVALID
+						|| d.operation == Mips.UNIMPL)
+					break;
+				if (Lib.test(Mips.BRANCH, d.flags))
+					delaySlot = true;
+			}
+
+			words = new int[length];
+			code = new CompiledInstruction[length];
+			for (int i = 0; i < length; i++) {
+				int index = (paddr >>> 2) + i;
+				words[i] = decodeCache[index].value;
+				code[i] = compile(decodeCache[index], fallback);
+				inBlock[index] = true;
+			}
+		}
+
+		/** The instruction words this block was compiled from. */
+		int[] words;
+
+		CompiledInstruction[] code;
+
+		/** The value of <tt>translationEpoch</tt> when last validated. */
+		int checkedEpoch;
+	}
+
+	/**
+	 * Compile a decoded instruction into a closure with the same effect as
+	 * executing it in the interpreter. Uncommon instructions are handed back
+	 * to the interpreter, which is safe because re-fetching an instruction
+	 * inside a block has no visible effect.
+	 * 
+	 * @param d the decoded instruction.
+	 * @param fallback the interpreter.
+	 * @return the compiled instruction.
+	 */
+	private CompiledInstruction compile(DecodedInstruction d,
+			final Instruction fallback) {
+		final int rs = d.rs, rt = d.rt, imm = d.imm, size = d.size;
+		final int branchOffset = d.branchOffset, jumpTarget = d.target << 2;
+		final int dstReg = Lib.test(Mips.DST, d.flags) ? d.dstReg : 0;
+		final int loadReg = d.dstReg;
+		final boolean src2Imm = Lib.test(Mips.SRC2IMM, d.flags);
+		final boolean unsigned = Lib.test(Mips.UNSIGNED, d.flags);
+		final boolean overflow = Lib.test(Mips.OVERFLOW, d.flags);
+		final boolean link = Lib.test(Mips.LINK, d.flags);
+		final int shift = Lib.test(Mips.SRC1SH, d.flags) ? d.sh : -1;
+
+		switch (d.operation) {
+		case Mips.ADD:
+			if (overflow)
+				return () -> {
+					long dst = (long) registers[rs]
+							+ (src2Imm ? imm : registers[rt]);
+					checkOverflow(dst);
+					complete(dstReg, (int) dst);
+				};
+			else if (src2Imm)
+				return () -> complete(dstReg, registers[rs] + imm);
+			else
+				return () -> complete(dstReg, registers[rs] + registers[rt]);
+
+		case Mips.SUB:
+			return () -> {
+				long dst = (long) registers[rs] - registers[rt];
+				if (overflow)
+					checkOverflow(dst);
+				complete(dstReg, (int) dst);
+			};
+
+		case Mips.SLL:
+			return () -> complete(dstReg, registers[rt] << (shiftAmount(shift,
+					rs) & 0x1F));
+		case Mips.SRA:
+			return () -> complete(dstReg, registers[rt] >> (shiftAmount(shift,
+					rs) & 0x1F));
+		case Mips.SRL:
+			// the interpreter shifts the sign-extended long value
+			return () -> complete(dstReg,
+					(int) (((long) registers[rt]) >>> (shiftAmount(shift, rs) & 0x1F)));
+
+		case Mips.SLT:
+			if (unsigned)
+				return () -> complete(dstReg,
+						((registers[rs] & 0xFFFFFFFFL) < ((src2Imm ? imm
+								: registers[rt]) & 0xFFFFFFFFL)) ? 1 : 0);
+			else
+				return () -> complete(dstReg, (registers[rs] < (src2Imm ? imm
+						: registers[rt])) ? 1 : 0);
+
+		case Mips.AND:
+			return () -> complete(dstReg, registers[rs]
+					& (src2Imm ? imm : registers[rt]));
+		case Mips.OR:
+			return () -> complete(dstReg, registers[rs]
+					| (src2Imm ? imm : registers[rt]));
+		case Mips.NOR:
+			return () -> complete(dstReg, ~(registers[rs] | (src2Imm ? imm
+					: registers[rt])));
+		case Mips.XOR:
+			return () -> complete(dstReg, registers[rs]
+					^ (src2Imm ? imm : registers[rt]));
+		case Mips.LUI:
+			return () -> complete(dstReg, imm << 16);
+
+		case Mips.MFLO:
+			return () -> complete(dstReg, registers[regLo]);
+		case Mips.MFHI:
+			return () -> complete(dstReg, registers[regHi]);
+
+		case Mips.BEQ:
+		case Mips.BNE:
+		case Mips.BLEZ:
+		case Mips.BGTZ:
+		case Mips.BLTZ:
+		case Mips.BGEZ:
+			final int test = d.operation;
+			return () -> {
+				int src1 = registers[rs];
+				boolean taken;
+				switch (test) {
+				case Mips.BEQ:
+					taken = (src1 == registers[rt]);
+					break;
+				case Mips.BNE:
+					taken = (src1 != registers[rt]);
+					break;
+				case Mips.BLEZ:
+					taken = (src1 <= 0);
+					break;
+				case Mips.BGTZ:
+					taken = (src1 > 0);
+					break;
+				case Mips.BLTZ:
+					taken = (src1 < 0);
+					break;
+				default:
+					taken = (src1 >= 0);
+					break;
+				}
+				int nextPC = registers[regNextPC] + 4;
+				int jtarget = registers[regNextPC] + branchOffset;
+				finishLoad();
+				if (link && dstReg != 0)
+					registers[dstReg] = nextPC;
+				advancePC(taken ? jtarget : nextPC);
+			};
+
+		case Mips.JUMP:
+			final boolean register = (d.format == Mips.RFMT);
+			return () -> {
+				int nextPC = registers[regNextPC] + 4;
+				int jtarget = register ? registers[rs]
+						: (registers[regNextPC] & 0xF0000000) | jumpTarget;
+				finishLoad();
+				if (link && dstReg != 0)
+					registers[dstReg] = nextPC;
+				advancePC(jtarget);
+			};
+
+		case Mips.SYSCALL:
+			return () -> {
+				throw mipsException(exceptionSyscall);
+			};
+
+		case Mips.LOAD:
+			return () -> {
+				int value = readMem(registers[rs] + imm, size);
+				delayedLoad(loadReg, unsigned ? value : Lib.extend(value, 0,
+						size * 8), 0xFFFFFFFF);
+				advancePC(registers[regNextPC] + 4);
+			};
+
+		case Mips.STORE:
+			return () -> {
+				writeMem(registers[rs] + imm, size, registers[rt]);
+				complete(0, 0);
+			};
+
+		default:
+			return () -> fallback.run();
+		}
+	}
+
+	private int shiftAmount(int shift, int rs) {
+		return (shift >= 0) ? shift : registers[rs];
+	}
+
+	private void checkOverflow(long dst) throws MipsException {
+		// same test as Instruction.writeBack()
+		if (Lib.test(dst, 31) != Lib.test(dst, 32))
+			throw mipsException(exceptionOverflow);
+	}
+
+	/**
+	 * Finish a compiled non-branch instruction: complete any delayed load,
+	 * write the destination register, and advance the PC.
+	 */
+	private void complete(int dstReg, int value) {
+		finishLoad();
+		if (dstReg != 0)
+			registers[dstReg] = value;
+		advancePC(registers[regNextPC] + 4);
+	}
+
+	/** The most instructions compiled into a single block. */
+	private static final int maxBlockLength = 64;
+
 	private static class Mips {
 		Mips() {
 		}
@@ -22,13 +22,27 @@ public final class Stats {
 				+ kernelTicks + ", user " + userTicks);
 		System.out.println("Disk I/O: reads " + numDiskReads + ", writes "
 				+ numDiskWrites);
+		if (diskScheduler != null)
+			System.out.println("Disk: " + diskScheduler + ", seeks "
+					+ numDiskSeeks + ", seek ticks " + diskSeekTicks
+					+ ", rotation ticks " + diskRotationTicks
+					+ ", transfer ticks " + diskTransferTicks);
 		System.out.println("Console I/O: reads " + numConsoleReads
 				+ ", writes " + numConsoleWrites);
 		System.out.println("Paging: page faults " + numPageFaults
 				+ ", TLB misses " + numTLBMisses);
+		if (tlbSetHits != null) {
+			for (int i = 0; i < tlbSetHits.length; i++)
+				System.out.println("  TLB set " + i + ": hits "
+						+ tlbSetHits[i] + ", misses " + tlbSetMisses[i]);
+		}
 		System.out.println("Swap: COFF reads " + numCOFFReads
 				+ ", swap reads " + numSwapReads
 			        + ", swap writes " + numSwapWrites);
+		if (replacementPolicy != null)
+			System.out.println("Replacement: " + replacementPolicy
+					+ ", page ins " + numPageIns + ", evictions "
+					+ numEvictions + ", swap writes " + numSwapWrites);
 		System.out.println("Network I/O: received " + numPacketsReceived
 				+ ", sent " + numPacketsSent);
 	}
@@ -54,6 +68,27 @@ public final class Stats {
 	/** The total number of sectors Nachos has written to the simulated disk. */
 	public int numDiskWrites = 0;
 
+	/** The total number of requests that moved the disk head. */
+	public int numDiskSeeks = 0;
+
+	/** The total amount of simulated time the disk head spent seeking. */
+	public long diskSeekTicks = 0;
+
+	/**
+	 * The total amount of simulated time the disk spent waiting for sectors
+	 * to rotate under the head.
+	 */
+	public long diskRotationTicks = 0;
+
+	/** The total amount of simulated time the disk spent transferring data. */
+	public long diskTransferTicks = 0;
+
+	/**
+	 * The name of the kernel's disk scheduler, or <tt>null</tt> if it has not
+	 * named one.
+	 */
+	public String diskScheduler = null;
+
 	/** The total number of characters Nachos has read from the console. */
 	public int numConsoleReads = 0;
 
@@ -66,6 +101,18 @@ public final class Stats {
 	/** The total number of TLB misses that have occurred. */
 	public int numTLBMisses = 0;
 
+	/**
+	 * The number of TLB hits in each TLB set, or <tt>null</tt> if the
+	 * processor has no TLB.
+	 */
+	public int[] tlbSetHits = null;
+
+	/**
+	 * The number of TLB misses in each TLB set, or <tt>null</tt> if the
+	 * processor has no TLB.
+	 */
+	public int[] tlbSetMisses = null;
+
         /** The total number of pages read from COFF files. */
         public int numCOFFReads = 0;
 
@@ -75,6 +122,18 @@ public final class Stats {
         /** The total number of pages written to swap. */
         public int numSwapWrites = 0;
 
+	/** The total number of pages the kernel brought into memory. */
+	public int numPageIns = 0;
+
+	/** The total number of pages the kernel evicted from memory. */
+	public int numEvictions = 0;
+
+	/**
+	 * The name of the kernel's page replacement policy, or <tt>null</tt> if
+	 * it has not named one.
+	 */
+	public String replacementPolicy = null;
+
 	/** The total number of packets Nachos has sent to the network. */
 	public int numPacketsSent = 0;
 
@@ -6,6 +6,8 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.reflect.Method;
 import java.security.PrivilegedAction;
 
 /**
@@ -14,6 +16,12 @@ import java.security.PrivilegedAction;
  * object.
  * 
  * <p>
+ * If <tt>TCB.virtualThreads</tt> is set, and the JVM supports them (Java 21
+ * or later), the threads are virtual threads. Switching between them does
+ * not block an OS thread, and there is no limit on how many can exist. On an
+ * older JVM the option is ignored.
+ * 
+ * <p>
  * Do not use any methods in <tt>java.lang.Thread</tt>, as they are not
  * compatible with the TCB API. Most <tt>Thread</tt> methods will either crash
  * Nachos or have no useful effect.
@@ -68,10 +76,20 @@ public final class TCB {
 		 * Make sure there aren't too many running TCBs already. This limitation
 		 * exists in an effort to prevent wild thread usage.
 		 */
-		Lib.assertTrue(runningThreads.size() < maxThreads);
-
 		isFirstTCB = (currentTCB == null);
 
+		if (isFirstTCB) {
+			useVirtualThreads = Config.getBoolean("TCB.virtualThreads", false);
+
+			if (useVirtualThreads && virtualThreadBuilder == null) {
+				Lib.debug(dbgTCB, "TCB.virtualThreads needs Java 21 or later; "
+						+ "using platform threads");
+				useVirtualThreads = false;
+			}
+		}
+
+		Lib.assertTrue(useVirtualThreads || runningThreads.size() < maxThreads);
+
 		/*
 		 * Probably unnecessary sanity check: if this is not the first TCB, we
 		 * make sure that the current thread is bound to the current TCB. This
@@ -102,7 +120,7 @@ public final class TCB {
 
 			privilege.doPrivileged(new Runnable() {
 				public void run() {
-					javaThread = new Thread(tcbTarget);
+					javaThread = newThread(tcbTarget);
 				}
 			});
 
@@ -291,32 +309,53 @@ public final class TCB {
 	}
 
 	/**
-	 * Waits on the monitor bound to this TCB until its <tt>running</tt> flag is
-	 * set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a TCB
-	 * needs to go to wait for its turn to run. This includes the ping-pong
+	 * Parks the Java thread bound to this TCB until its <tt>running</tt> flag
+	 * is set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a
+	 * TCB needs to go to wait for its turn to run. This includes the ping-pong
 	 * process of starting and destroying TCBs, as well as in context switching
 	 * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
-	 * is updated by <tt>contextSwitch()</tt> before we get called.
+	 * is updated by <tt>contextSwitch()</tt> before we get called. Only the
+	 * Java thread bound to this TCB may call it.
+	 * 
+	 * <p>
+	 * Parking, unlike waiting on a monitor, lets a virtual thread give up its
+	 * carrier thread.
 	 */
-	private synchronized void waitForInterrupt() {
-		while (!running) {
-			try {
-				wait();
-			}
-			catch (InterruptedException e) {
-			}
-		}
+	private void waitForInterrupt() {
+		while (!running)
+			LockSupport.park(this);
 	}
 
 	/**
 	 * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-	 * and signalling the monitor bound to it. Used in the ping-pong process of
-	 * starting and destroying TCBs, as well as in context switching to this
-	 * TCB.
+	 * and unparking the Java thread bound to it. Used in the ping-pong process
+	 * of starting and destroying TCBs, as well as in context switching to this
+	 * TCB. If the Java thread has not started yet, it will see the flag when it
+	 * first waits.
 	 */
-	private synchronized void interrupt() {
+	private void interrupt() {
 		running = true;
-		notify();
+		LockSupport.unpark(javaThread);
+	}
+
+	/**
+	 * Create an unstarted Java thread to run the specified target: a virtual
+	 * thread if <tt>TCB.virtualThreads</tt> is set and the JVM has them,
+	 * otherwise a platform thread. Virtual threads are created by reflection,
+	 * so that Nachos still builds and runs on JVMs without them.
+	 */
+	private static Thread newThread(Runnable target) {
+		if (!useVirtualThreads)
+			return new Thread(target);
+
+		try {
+			return (Thread) unstartedVirtualThread.invoke(
+					virtualThreadBuilder, target);
+		}
+		catch (Exception e) {
+			Lib.assertNotReached("could not create a virtual thread");
+			return null;
+		}
 	}
 
 	private void associateThread(KThread thread) {
@@ -342,10 +381,38 @@ public final class TCB {
 
 	/**
 	 * The maximum number of started, non-destroyed TCB's that can be in
-	 * existence.
+	 * existence, unless they use virtual threads.
 	 */
 	public static final int maxThreads = 250;
 
+	/** <tt>true</tt> if new TCBs run in virtual threads. */
+	private static boolean useVirtualThreads = false;
+
+	/**
+	 * A <tt>Thread.Builder.OfVirtual</tt>, or <tt>null</tt> if the JVM has no
+	 * virtual threads.
+	 */
+	private static Object virtualThreadBuilder = null;
+
+	/** <tt>Thread.Builder.unstarted(Runnable)</tt>. */
+	private static Method unstartedVirtualThread = null;
+
+	static {
+		// look for virtual threads once; they are final from Java 21 on
+		if (Runtime.version().feature() >= 21) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(
+						null);
+				unstartedVirtualThread = Class.forName(
+						"java.lang.Thread$Builder").getMethod("unstarted",
+						Runnable.class);
+				virtualThreadBuilder = builder;
+			}
+			catch (Exception e) {
+			}
+		}
+	}
+
 	/**
 	 * A reference to the currently running TCB. It is initialized to
 	 * <tt>null</tt> when the <tt>TCB</tt> class is loaded, and then the first
@@ -369,8 +436,9 @@ public final class TCB {
 	 * <tt>catch</tt> clauses of <tt>threadroot()</tt>, one of which is always
 	 * invoked on thread termination. The maximum number of threads in
 	 * <tt>runningThreads</tt> is limited to <tt>maxThreads</tt> by
-	 * <tt>start(Runnable)</tt>. If <tt>threadroot()</tt> drops the number of
-	 * TCB objects in <tt>runningThreads</tt> to zero, Nachos exits, so once the
+	 * <tt>start(Runnable)</tt>, unless the TCBs use virtual threads. If
+	 * <tt>threadroot()</tt> drops the number of TCB objects in
+	 * <tt>runningThreads</tt> to zero, Nachos exits, so once the
 	 * first TCB is created, this vector is basically never empty.
 	 */
 	private static Vector<TCB> runningThreads = new Vector<TCB>();
@@ -403,7 +471,7 @@ public final class TCB {
 	 * TCB, this is temporarily true for a thread other than that of the current
 	 * TCB.
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -420,6 +488,8 @@ public final class TCB {
 
 	private Runnable tcbTarget;
 
+	private static final char dbgTCB = 't';
+
 	private static class TCBPrivilege implements Privilege.TCBPrivilege {
 		public void associateThread(KThread thread) {
 			Lib.assertTrue(currentTCB != null);
@@ -157,6 +157,27 @@ public abstract class Privilege {
 		 * user code.
 		 */
 		public void tick(boolean inKernelMode);
+
+		/**
+		 * Advance the simulated time by several ticks at once, checking for
+		 * due interrupts only after the last one. This has the same effect as
+		 * calling <tt>tick()</tt> <i>count</i> times, provided that no
+		 * interrupt falls due before the last tick.
+		 * 
+		 * @param inKernelMode <tt>true</tt> if the current thread is running
+		 * kernel code, <tt>false</tt> if the current thread is running MIPS
+		 * user code.
+		 * @param count the number of ticks to advance by.
+		 */
+		public void tick(boolean inKernelMode, int count);
+
+		/**
+		 * Return the number of ticks until the next pending interrupt is due,
+		 * or <tt>Long.MAX_VALUE</tt> if no interrupt is pending.
+		 * 
+		 * @return the time until the next pending interrupt.
+		 */
+		public long timeUntilDue();
 	}
 
 	/**
@@ -0,0 +1,53 @@
+/*
+ * fork.c
+ *
+ * Simple program for testing fork.  The child changes a global and
+ * exits with it as its status.  The parent joins the child, then checks
+ * the status and that its own copy of the global is unchanged.
+ */
+
+#include "syscall.h"
+
+int value = 10;
+
+int
+main (int argc, char *argv[])
+{
+    int pid, r, status = 0;
+
+    printf ("forking...\n");
+    pid = fork ();
+    if (pid == 0) {
+	// the child writes its own copy of value
+	value = value + 32;
+	exit (value);
+    } else if (pid > 0) {
+	printf ("...passed\n");
+    } else {
+	printf ("...failed (pid = %d)\n", pid);
+	exit (-1);
+    }
+
+    printf ("joining %d...\n", pid);
+    r = join (pid, &status);
+    if (r > 0 && status == 42) {
+	printf ("...passed (status from child = %d)\n", status);
+    } else if (r > 0) {
+	printf ("...failed (status from child = %d)\n", status);
+	exit (-1);
+    } else if (r == 0) {
+	printf ("...child exited with unhandled exception\n");
+	exit (-1);
+    } else {
+	printf ("...failed (r = %d)\n", r);
+	exit (-1);
+    }
+
+    if (value != 10) {
+	printf ("...failed (parent sees value = %d)\n", value);
+	exit (-1);
+    }
+
+    // the return value from main is used as the status to exit
+    return 0;
+}
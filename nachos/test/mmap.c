@@ -0,0 +1,79 @@
+/*
+ * mmap.c
+ *
+ * Simple program for testing mmap.  Writes a file, maps it, checks its
+ * contents through the map, changes them, and closes the file to write
+ * the map back.  Then reads the file again to check the change.
+ */
+
+#include "syscall.h"
+
+#define LENGTH 3000
+
+/* page aligned, and well past the end of this program */
+#define MAPADDR ((char *) 0x100000)
+
+char buf[LENGTH];
+
+int
+main (int argc, char *argv[])
+{
+    char *file = "mmap.out";
+    int fd, i, r;
+
+    for (i = 0; i < LENGTH; i++) {
+	buf[i] = i % 251;
+    }
+    fd = creat (file);
+    if (fd < 0 || write (fd, buf, LENGTH) != LENGTH) {
+	printf ("...failed to write %s\n", file);
+	exit (-1);
+    }
+    close (fd);
+
+    printf ("mapping %s...\n", file);
+    fd = open (file);
+    r = mmap (fd, MAPADDR);
+    if (r == LENGTH) {
+	printf ("...passed\n");
+    } else {
+	printf ("...failed (r = %d)\n", r);
+	exit (-1);
+    }
+
+    if (read (fd, buf, 1) != -1) {
+	printf ("...failed (read from a mapped file succeeded)\n");
+	exit (-1);
+    }
+    for (i = 0; i < LENGTH; i++) {
+	if (MAPADDR[i] != (char) (i % 251)) {
+	    printf ("...failed (byte %d reads %d)\n", i, MAPADDR[i]);
+	    exit (-1);
+	}
+    }
+
+    // change the file through the map, then write the map back
+    for (i = 0; i < LENGTH; i++) {
+	MAPADDR[i] = (i % 251) + 1;
+    }
+    close (fd);
+
+    printf ("reading %s back...\n", file);
+    fd = open (file);
+    if (fd < 0 || read (fd, buf, LENGTH) != LENGTH) {
+	printf ("...failed to read %s\n", file);
+	exit (-1);
+    }
+    close (fd);
+    unlink (file);
+    for (i = 0; i < LENGTH; i++) {
+	if (buf[i] != (char) ((i % 251) + 1)) {
+	    printf ("...failed (byte %d is %d)\n", i, buf[i]);
+	    exit (-1);
+	}
+    }
+    printf ("...passed\n");
+
+    // the return value from main is used as the status to exit
+    return 0;
+}
@@ -0,0 +1,29 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Circular LOOK. The head only serves requests while sweeping towards higher
+ * tracks. When there are none left ahead of it, it goes back to the lowest
+ * waiting request and sweeps again, so every request waits at most about one
+ * sweep.
+ */
+public class CLookDiskScheduler extends DiskScheduler {
+	/**
+	 * Allocate a new circular LOOK disk scheduler.
+	 */
+	public CLookDiskScheduler() {
+	}
+
+	protected SynchDisk.Request choose(int headTrack) {
+		SynchDisk.Request ahead = null, lowest = null;
+		for (SynchDisk.Request request : waiting) {
+			if (request.track >= headTrack
+					&& (ahead == null || before(request, ahead)))
+				ahead = request;
+			if (lowest == null || before(request, lowest))
+				lowest = request;
+		}
+		return (ahead != null) ? ahead : lowest;
+	}
+}
@@ -0,0 +1,584 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * A file system that keeps recently used blocks of files in a kernel buffer
+ * cache, in front of another file system. Select it with
+ * <tt>ThreadedKernel.fileSystem = nachos.threads.CachedFileSystem</tt>. The
+ * file system it caches is <tt>CachedFileSystem.fileSystem</tt>, or the stub
+ * file system if that key is not set.
+ *
+ * <p>
+ * The cache holds <tt>CachedFileSystem.blocks</tt> blocks of
+ * <tt>blockSize</tt> bytes, and evicts the least recently used block when it
+ * needs another. Writes only change the cached blocks. Dirty blocks are
+ * written back when they are evicted and when the last open instance of
+ * their file is closed. A read that misses right after the previous block
+ * read through the same open file also reads up to
+ * <tt>CachedFileSystem.readAhead</tt> following blocks, in the same
+ * operation on the file system below. Consecutive dirty blocks are written
+ * back together in the same way.
+ *
+ * <p>
+ * Blocks stay cached after their file is closed, and opening a file whose
+ * blocks are cached does not touch the file system below until a block has
+ * to be read or written. So the cache assumes it is the only user of the file
+ * system below.
+ */
+public class CachedFileSystem implements FileSystem {
+	/**
+	 * Allocate a new cached file system in front of the file system named by
+	 * <tt>CachedFileSystem.fileSystem</tt>, or the stub file system.
+	 */
+	public CachedFileSystem() {
+		this(belowFileSystem());
+	}
+
+	/**
+	 * Allocate a new cached file system in front of the specified file
+	 * system.
+	 *
+	 * @param fileSystem the file system to cache.
+	 */
+	public CachedFileSystem(FileSystem fileSystem) {
+		Lib.assertTrue(fileSystem != null);
+
+		this.fileSystem = fileSystem;
+
+		maxBlocks = Config.getInteger("CachedFileSystem.blocks", 64);
+		readAhead = Config.getInteger("CachedFileSystem.readAhead", 4);
+		Lib.assertTrue(maxBlocks > 0 && readAhead >= 0);
+
+		lock = new Lock();
+		blockFree = new Condition(lock);
+	}
+
+	private static FileSystem belowFileSystem() {
+		String fileSystemName = Config.getString("CachedFileSystem.fileSystem");
+		if (fileSystemName != null)
+			return (FileSystem) Lib.constructObject(fileSystemName);
+		else
+			return Machine.stubFileSystem();
+	}
+
+	/**
+	 * Return the file system this cache is in front of. Data written through
+	 * it bypasses the cache, so it should only be used for files that are
+	 * never opened through the cache, such as the swap file.
+	 *
+	 * @return the cached file system.
+	 */
+	public FileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	public OpenFile open(String name, boolean truncate) {
+		lock.acquire();
+
+		CachedFile file = files.get(name);
+		if (file == null || truncate) {
+			OpenFile below = fileSystem.open(name, truncate);
+			if (below == null) {
+				lock.release();
+				return null;
+			}
+
+			if (file == null) {
+				file = new CachedFile(name, below);
+				files.put(name, file);
+			}
+			else {
+				// the file below is empty now
+				discardBlocks(file);
+				if (file.below != null)
+					file.below.close();
+				file.below = below;
+				file.length = file.diskLength = 0;
+			}
+		}
+
+		file.openCount++;
+		openCount++;
+
+		lock.release();
+
+		return new CachedOpenFile(file);
+	}
+
+	public boolean remove(String name) {
+		lock.acquire();
+
+		CachedFile file = files.remove(name);
+		if (file != null) {
+			file.removed = true;
+			if (file.openCount == 0) {
+				discardBlocks(file);
+			}
+			else if (file.below == null) {
+				// keep the file usable by those who have it open
+				file.below = fileSystem.open(name, false);
+			}
+		}
+
+		boolean successful = fileSystem.remove(name);
+
+		lock.release();
+
+		return successful;
+	}
+
+	public int getOpenCount() {
+		return openCount;
+	}
+
+	/**
+	 * Write every dirty block back to the file system below.
+	 */
+	public void flush() {
+		lock.acquire();
+
+		for (CachedFile file : files.values())
+			flushBlocks(file);
+
+		lock.release();
+	}
+
+	/**
+	 * Called when an open instance of <i>file</i> is closed. When the last is
+	 * closed, write its dirty blocks back, or throw its blocks away if it has
+	 * been removed, and close it in the file system below.
+	 */
+	private void close(CachedFile file) {
+		lock.acquire();
+
+		Lib.assertTrue(file.openCount > 0);
+		openCount--;
+		if (--file.openCount == 0) {
+			if (file.removed)
+				discardBlocks(file);
+			else
+				flushBlocks(file);
+
+			if (file.below != null) {
+				file.below.close();
+				file.below = null;
+			}
+		}
+
+		lock.release();
+	}
+
+	private int read(CachedOpenFile openFile, int pos, byte[] buf, int offset,
+			int length) {
+		Lib.assertTrue(offset >= 0 && length >= 0
+				&& offset + length <= buf.length);
+
+		if (pos < 0)
+			return -1;
+
+		CachedFile file = openFile.file;
+
+		lock.acquire();
+
+		length = Math.max(0, Math.min(length, file.length - pos));
+		int amount = 0;
+		while (amount < length) {
+			int number = (pos + amount) / blockSize;
+			int blockOffset = (pos + amount) % blockSize;
+
+			boolean sequential = (number == openFile.lastBlock + 1);
+			Block block = getBlock(file, number, true, sequential);
+			if (block == null)
+				break;
+			openFile.lastBlock = number;
+
+			int n = Math.min(length - amount, blockSize - blockOffset);
+			System.arraycopy(block.data, blockOffset, buf, offset + amount, n);
+			amount += n;
+		}
+
+		lock.release();
+
+		return (amount == 0 && length > 0) ? -1 : amount;
+	}
+
+	private int write(CachedOpenFile openFile, int pos, byte[] buf, int offset,
+			int length) {
+		Lib.assertTrue(offset >= 0 && length >= 0
+				&& offset + length <= buf.length);
+
+		if (pos < 0)
+			return -1;
+
+		CachedFile file = openFile.file;
+
+		lock.acquire();
+
+		int amount = 0;
+		while (amount < length) {
+			int number = (pos + amount) / blockSize;
+			int blockOffset = (pos + amount) % blockSize;
+			int n = Math.min(length - amount, blockSize - blockOffset);
+
+			// the block need not be read if this overwrites all of it that is
+			// on disk
+			boolean overwrite = (blockOffset == 0 && (n == blockSize
+					|| number * blockSize + n >= file.diskLength));
+			Block block = getBlock(file, number, !overwrite, false);
+			if (block == null)
+				break;
+
+			System.arraycopy(buf, offset + amount, block.data, blockOffset, n);
+			block.dirty = true;
+			amount += n;
+			file.length = Math.max(file.length, pos + amount);
+		}
+
+		lock.release();
+
+		return (amount == 0 && length > 0) ? -1 : amount;
+	}
+
+	/**
+	 * Return block <i>number</i> of <i>file</i>, caching it if necessary, and
+	 * mark it most recently used. If it is not cached and <i>fill</i> is
+	 * set, read it from the file system below, together with the following
+	 * blocks if <i>sequential</i> is set; otherwise the new block is zeros.
+	 * Called with the lock held, which may be released while waiting for the
+	 * file system below.
+	 *
+	 * @return the block, or <tt>null</tt> if it could not be read.
+	 */
+	private Block getBlock(CachedFile file, int number, boolean fill,
+			boolean sequential) {
+		while (true) {
+			Block block = file.blocks.get(number);
+			if (block != null) {
+				if (block.busy) {
+					blockFree.sleep();
+					continue;
+				}
+
+				lru.remove(block);
+				lru.add(block);
+				return block;
+			}
+
+			block = allocateBlock(true);
+			if (block == null)
+				continue;
+
+			// cache the block, and the blocks read ahead with it
+			int count = 1;
+			addBlock(block, file, number);
+			if (fill && sequential) {
+				while (count <= readAhead
+						&& (number + count) * blockSize < file.diskLength
+						&& !file.blocks.containsKey(number + count)) {
+					Block next = allocateBlock(false);
+					if (next == null)
+						break;
+
+					addBlock(next, file, number + count);
+					count++;
+				}
+			}
+
+			int start = number * blockSize;
+			byte[] buffer = new byte[count * blockSize];
+			int amount = 0;
+			if (fill && start < file.diskLength) {
+				OpenFile below = file.openBelow(fileSystem);
+
+				lock.release();
+				amount = (below == null) ? -1
+						: below.read(start, buffer, 0, buffer.length);
+				lock.acquire();
+			}
+
+			for (int i = 0; i < count; i++) {
+				Block cached = file.blocks.get(number + i);
+				System.arraycopy(buffer, i * blockSize, cached.data, 0, blockSize);
+				cached.busy = false;
+			}
+			blockFree.wakeAll();
+
+			if (amount == -1) {
+				for (int i = 0; i < count; i++)
+					removeBlock(file.blocks.get(number + i));
+				return null;
+			}
+
+			return block;
+		}
+	}
+
+	/**
+	 * Return a block to cache a new block in: a new one if the cache is not
+	 * full, or else the least recently used block that is not busy. Called
+	 * with the lock held. If the block to evict is dirty it is written back,
+	 * which releases the lock, so <tt>null</tt> is returned and the caller
+	 * must look again for the block it wants. Also returns <tt>null</tt>,
+	 * after waiting, if every block is busy.
+	 *
+	 * @param mayWait <tt>false</tt> to return <tt>null</tt> at once instead
+	 * of writing back a block or waiting.
+	 * @return a block not in the cache, or <tt>null</tt>.
+	 */
+	private Block allocateBlock(boolean mayWait) {
+		if (numBlocks < maxBlocks) {
+			numBlocks++;
+			return new Block();
+		}
+
+		for (Iterator<Block> i = lru.iterator(); i.hasNext();) {
+			Block block = i.next();
+			if (block.busy)
+				continue;
+
+			if (block.dirty) {
+				if (mayWait)
+					writeBack(block);
+				return null;
+			}
+
+			i.remove();
+			block.file.blocks.remove(block.number);
+			block.file = null;
+			return block;
+		}
+
+		if (mayWait)
+			blockFree.sleep();
+		return null;
+	}
+
+	private void addBlock(Block block, CachedFile file, int number) {
+		block.file = file;
+		block.number = number;
+		block.busy = true;
+		block.dirty = false;
+		file.blocks.put(number, block);
+		lru.add(block);
+	}
+
+	private void removeBlock(Block block) {
+		lru.remove(block);
+		block.file.blocks.remove(block.number);
+		block.file = null;
+		numBlocks--;
+	}
+
+	/**
+	 * Write dirty block <i>block</i> back, together with the dirty blocks of
+	 * its file next to it, up to <tt>readAhead+1</tt> blocks in all, in one
+	 * operation on the file system below. The blocks are busy until the
+	 * write finishes. Called with the lock held, which is released during
+	 * the write.
+	 */
+	private void writeBack(Block block) {
+		CachedFile file = block.file;
+		int first = block.number, last = block.number;
+		while (last - first < readAhead && isDirtyIdle(file, last + 1))
+			last++;
+		while (last - first < readAhead && isDirtyIdle(file, first - 1))
+			first--;
+
+		int start = first * blockSize;
+		int length = Math.min((last + 1) * blockSize, file.length) - start;
+		byte[] buffer = new byte[(last - first + 1) * blockSize];
+		for (int number = first; number <= last; number++) {
+			Block dirty = file.blocks.get(number);
+			System.arraycopy(dirty.data, 0, buffer, (number - first) * blockSize,
+					blockSize);
+			dirty.dirty = false;
+			dirty.busy = true;
+		}
+
+		if (length > 0) {
+			OpenFile below = file.openBelow(fileSystem);
+
+			lock.release();
+			int written = (below == null) ? -1
+					: below.write(start, buffer, 0, length);
+			lock.acquire();
+
+			if (written > 0)
+				file.diskLength = Math.max(file.diskLength, start + written);
+			else
+				Lib.debug(dbgCache, "could not write back " + file.name);
+		}
+
+		for (int number = first; number <= last; number++)
+			file.blocks.get(number).busy = false;
+		blockFree.wakeAll();
+	}
+
+	private boolean isDirtyIdle(CachedFile file, int number) {
+		Block block = file.blocks.get(number);
+		return block != null && block.dirty && !block.busy;
+	}
+
+	/**
+	 * Write back every dirty block of <i>file</i>. Called with the lock held.
+	 */
+	private void flushBlocks(CachedFile file) {
+		while (true) {
+			Block dirty = null;
+			boolean busy = false;
+			for (Block block : file.blocks.values()) {
+				if (block.busy)
+					busy = true;
+				else if (block.dirty)
+					dirty = block;
+			}
+
+			if (dirty != null)
+				writeBack(dirty);
+			else if (busy)
+				blockFree.sleep();
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Throw away every block of <i>file</i> without writing it back. Called
+	 * with the lock held.
+	 */
+	private void discardBlocks(CachedFile file) {
+		while (!file.blocks.isEmpty()) {
+			Block idle = null;
+			for (Block block : file.blocks.values()) {
+				if (!block.busy)
+					idle = block;
+			}
+
+			if (idle != null)
+				removeBlock(idle);
+			else
+				blockFree.sleep();
+		}
+		blockFree.wakeAll();
+	}
+
+	/** A file with blocks in the cache. */
+	private static class CachedFile {
+		CachedFile(String name, OpenFile below) {
+			this.name = name;
+			this.below = below;
+			length = diskLength = below.length();
+		}
+
+		/**
+		 * Return the file open in the file system below, opening it if the
+		 * file was closed.
+		 */
+		OpenFile openBelow(FileSystem fileSystem) {
+			if (below == null)
+				below = fileSystem.open(name, false);
+			return below;
+		}
+
+		String name;
+
+		/** The file open in the file system below, or null. */
+		OpenFile below;
+
+		/** The length of the file, including blocks not yet written back. */
+		int length;
+
+		/** The length of the file in the file system below. */
+		int diskLength;
+
+		int openCount = 0;
+
+		boolean removed = false;
+
+		HashMap<Integer, Block> blocks = new HashMap<Integer, Block>();
+	}
+
+	/** A cached block of a file. */
+	private static class Block {
+		CachedFile file;
+
+		int number;
+
+		byte[] data = new byte[blockSize];
+
+		boolean dirty;
+
+		/** Set while the block is being read or written back. */
+		boolean busy;
+	}
+
+	/** An open instance of a cached file. */
+	private class CachedOpenFile extends OpenFileWithPosition {
+		CachedOpenFile(CachedFile file) {
+			super(CachedFileSystem.this, file.name);
+
+			this.file = file;
+		}
+
+		public int read(int pos, byte[] buf, int offset, int length) {
+			if (file == null)
+				return -1;
+
+			return CachedFileSystem.this.read(this, pos, buf, offset, length);
+		}
+
+		public int write(int pos, byte[] buf, int offset, int length) {
+			if (file == null)
+				return -1;
+
+			return CachedFileSystem.this.write(this, pos, buf, offset, length);
+		}
+
+		public int length() {
+			if (file == null)
+				return -1;
+
+			return file.length;
+		}
+
+		public void close() {
+			if (file != null) {
+				CachedFileSystem.this.close(file);
+				file = null;
+			}
+		}
+
+		private CachedFile file;
+
+		/** The block last read through this open file. */
+		private int lastBlock = -1;
+	}
+
+	/** The number of bytes in a block. */
+	public static final int blockSize = 1024;
+
+	private FileSystem fileSystem;
+
+	private int maxBlocks, readAhead;
+
+	private int numBlocks = 0;
+
+	private int openCount = 0;
+
+	private Lock lock;
+
+	/** Signalled when a block stops being busy. */
+	private Condition blockFree;
+
+	private HashMap<String, CachedFile> files = new HashMap<String, CachedFile>();
+
+	/** The cached blocks, least recently used first. */
+	private LinkedHashSet<Block> lru = new LinkedHashSet<Block>();
+
+	private static final char dbgCache = 'c';
+}
@@ -0,0 +1,87 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedList;
+
+/**
+ * Orders the requests waiting for the disk. The kernel's scheduler is named
+ * by the <tt>SynchDisk.scheduler</tt> key in <tt>nachos.conf</tt>.
+ *
+ * <p>
+ * <tt>SynchDisk</tt> hands every request to the scheduler that arrives while
+ * the disk is busy, and asks it for the next one each time the disk finishes.
+ * Both are called with interrupts disabled.
+ */
+public abstract class DiskScheduler {
+	/**
+	 * Allocate a new disk scheduler.
+	 */
+	public DiskScheduler() {
+	}
+
+	/**
+	 * Initialize this scheduler for a disk with the specified number of
+	 * tracks.
+	 *
+	 * @param numTracks the number of tracks on the disk.
+	 */
+	public void initialize(int numTracks) {
+		this.numTracks = numTracks;
+	}
+
+	/**
+	 * Add a request to the waiting requests.
+	 *
+	 * @param request the request to add.
+	 */
+	public void add(SynchDisk.Request request) {
+		waiting.add(request);
+	}
+
+	/**
+	 * Remove and return the request the disk should serve next.
+	 *
+	 * @param headTrack the track the head is over.
+	 * @return the next request, or <tt>null</tt> if none are waiting.
+	 */
+	public SynchDisk.Request next(int headTrack) {
+		if (waiting.isEmpty())
+			return null;
+
+		SynchDisk.Request request = choose(headTrack);
+		waiting.remove(request);
+		return request;
+	}
+
+	/**
+	 * Choose one of the waiting requests, of which there is at least one.
+	 *
+	 * @param headTrack the track the head is over.
+	 * @return the request to serve next.
+	 */
+	protected abstract SynchDisk.Request choose(int headTrack);
+
+	/**
+	 * Return the name printed in the statistics when Nachos halts.
+	 *
+	 * @return the name of this scheduler.
+	 */
+	public String getName() {
+		return getClass().getSimpleName();
+	}
+
+	/**
+	 * Test whether request <i>a</i> comes before request <i>b</i> on the
+	 * disk.
+	 */
+	protected static boolean before(SynchDisk.Request a, SynchDisk.Request b) {
+		return a.track < b.track || (a.track == b.track && a.sector < b.sector);
+	}
+
+	/** The number of tracks on the disk. */
+	protected int numTracks;
+
+	/** The waiting requests, in the order they arrived. */
+	protected LinkedList<SynchDisk.Request> waiting = new LinkedList<SynchDisk.Request>();
+}
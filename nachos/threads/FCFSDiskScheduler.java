@@ -0,0 +1,18 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Serves requests in the order they arrive.
+ */
+public class FCFSDiskScheduler extends DiskScheduler {
+	/**
+	 * Allocate a new first-come first-served disk scheduler.
+	 */
+	public FCFSDiskScheduler() {
+	}
+
+	protected SynchDisk.Request choose(int headTrack) {
+		return waiting.getFirst();
+	}
+}
@@ -321,6 +321,8 @@ public class KThread {
 	private static void createIdleThread() {
 		Lib.assertTrue(idleThread == null);
 
+		idleFastForward = Config.getBoolean("KThread.idleFastForward", false);
+
 		idleThread = new KThread(new Runnable() {
 			public void run() {
 				while (true)
@@ -336,13 +338,19 @@ public class KThread {
 
 	/**
 	 * Determine the next thread to run, then dispatch the CPU to the thread
-	 * using <tt>run()</tt>.
+	 * using <tt>run()</tt>. If the idle thread is yielding with no other
+	 * thread ready, and <tt>KThread.idleFastForward</tt> is set, skip ahead to
+	 * the next interrupt first, since nothing else can happen until then.
 	 */
 	private static void runNextThread() {
 		KThread nextThread = readyQueue.nextThread();
-		if (nextThread == null)
+		if (nextThread == null) {
 			nextThread = idleThread;
 
+			if (currentThread == idleThread && idleFastForward)
+				Machine.interrupt().idle();
+		}
+
 		nextThread.run();
 	}
 
@@ -534,4 +542,6 @@ public class KThread {
 	
 	private static KThread idleThread = null;
 
+	private static boolean idleFastForward = false;
+
 } 
@@ -0,0 +1,871 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A file system stored on the disk. It needs <tt>Machine.disk = true</tt>,
+ * and uses the first <tt>NativeFileSystem.numSectors</tt> sectors, which by
+ * default is every sector not set aside for swap by
+ * <tt>VMKernel.swapSectors</tt>.
+ *
+ * <p>
+ * Sector 0 holds the superblock. It is followed by a bitmap of the free
+ * sectors and then by the inode of the root directory. Every file and
+ * directory has an inode, which takes one sector and holds its length and
+ * the first extents of its data. An extent is a run of consecutive sectors,
+ * so a file laid out sequentially needs only a few of them, and can be read
+ * or written with one disk request per extent. Extents that do not fit in
+ * the inode go in a chain of indirect sectors.
+ *
+ * <p>
+ * A file that grows is given at least <tt>NativeFileSystem.growSectors</tt>
+ * sectors at a time, after its last extent if they are free and as close
+ * after it as possible otherwise. Sectors past the end of the file are
+ * given back when it is last closed.
+ *
+ * <p>
+ * A directory is a file of 32-byte entries, each holding the sector of an
+ * inode and a name of up to 27 bytes. Names are paths from the root
+ * directory, with components separated by <tt>/</tt>. Directories are made
+ * with <tt>createDirectory()</tt> and removed with <tt>remove()</tt> once
+ * they are empty.
+ *
+ * <p>
+ * The disk is formatted the first time the file system is used, unless it
+ * already holds one and <tt>NativeFileSystem.format</tt> is not set. The
+ * disk is only kept between runs if it has a <tt>Disk.image</tt>. Opening a
+ * file in the root directory that does not exist copies it in from the stub
+ * file system, if there is one, so test programs can be run; set
+ * <tt>NativeFileSystem.importFiles = false</tt> to turn this off.
+ */
+public class NativeFileSystem implements FileSystem {
+	/**
+	 * Allocate a new native file system on <tt>ThreadedKernel.disk</tt>. The
+	 * disk is not read until the file system is first used, since that needs
+	 * a running thread.
+	 */
+	public NativeFileSystem() {
+		disk = ThreadedKernel.disk;
+		Lib.assertTrue(disk != null, "NativeFileSystem needs a disk");
+
+		int diskSectors = disk.getDisk().getNumSectors();
+		numSectors = Config.getInteger("NativeFileSystem.numSectors",
+				diskSectors - Config.getInteger("VMKernel.swapSectors", 0));
+		growSectors = Config.getInteger("NativeFileSystem.growSectors", 32);
+		importFiles = Config.getBoolean("NativeFileSystem.importFiles", true);
+		Lib.assertTrue(numSectors > 0 && numSectors <= diskSectors
+				&& growSectors > 0);
+
+		bitmapSectors = Lib.divRoundUp(numSectors, Disk.SectorSize * 8);
+		rootSector = 1 + bitmapSectors;
+		Lib.assertTrue(rootSector < numSectors);
+
+		lock = new Lock();
+		bitmapLock = new Lock();
+	}
+
+	public OpenFile open(String name, boolean truncate) {
+		lock.acquire();
+		mount();
+
+		Inode inode = null;
+		boolean created = false;
+
+		Inode parent = lookupParent(name);
+		String leaf = leafName(name);
+		if (parent != null && leaf != null) {
+			int sector = findEntry(parent, leaf);
+
+			if (sector == 0 && !truncate && parent == root)
+				sector = importFile(leaf);
+
+			if (sector == 0 && truncate) {
+				inode = createInode(parent, leaf, FILE);
+				created = true;
+			}
+			else if (sector != 0) {
+				inode = getInode(sector);
+				if (inode.type != FILE)
+					inode = null;
+			}
+		}
+
+		if (inode != null) {
+			inode.openCount++;
+			openCount++;
+		}
+
+		lock.release();
+
+		if (inode == null)
+			return null;
+
+		if (truncate && !created) {
+			inode.lock.acquire();
+			inode.length = 0;
+			inode.trim(0);
+			// the freed sectors may be reused, so the inode must not list them
+			inode.flush();
+			inode.lock.release();
+		}
+
+		return new NativeOpenFile(inode, name);
+	}
+
+	public boolean remove(String name) {
+		lock.acquire();
+		mount();
+
+		boolean removed = false;
+
+		Inode parent = lookupParent(name);
+		String leaf = leafName(name);
+		if (parent != null && leaf != null) {
+			int sector = findEntry(parent, leaf);
+
+			if (sector != 0) {
+				Inode inode = getInode(sector);
+
+				if (inode.type != DIRECTORY || isEmpty(inode)) {
+					setEntry(parent, leaf, 0);
+					inodes.remove(sector);
+
+					// an open file is freed when it is last closed
+					if (inode.openCount > 0)
+						inode.removed = true;
+					else
+						inode.free();
+
+					removed = true;
+				}
+			}
+		}
+
+		lock.release();
+		return removed;
+	}
+
+	/**
+	 * Create an empty directory.
+	 *
+	 * @param name the path of the directory.
+	 * @return <tt>true</tt> if the directory was created.
+	 */
+	public boolean createDirectory(String name) {
+		lock.acquire();
+		mount();
+
+		boolean created = false;
+
+		Inode parent = lookupParent(name);
+		String leaf = leafName(name);
+		if (parent != null && leaf != null && findEntry(parent, leaf) == 0)
+			created = (createInode(parent, leaf, DIRECTORY) != null);
+
+		lock.release();
+		return created;
+	}
+
+	public int getOpenCount() {
+		return openCount;
+	}
+
+	/**
+	 * Read the superblock, bitmap and root directory, or format the disk if
+	 * it does not hold a file system. Called with the lock held.
+	 */
+	private void mount() {
+		if (root != null)
+			return;
+
+		byte[] superblock = new byte[Disk.SectorSize];
+		disk.read(0, superblock, 0, 1);
+
+		bitmap = new byte[bitmapSectors * Disk.SectorSize];
+
+		if (Lib.bytesToInt(superblock, 0) == magic
+				&& Lib.bytesToInt(superblock, 4) == numSectors
+				&& !Config.getBoolean("NativeFileSystem.format", false)) {
+			disk.read(1, bitmap, 0, bitmapSectors);
+			root = getInode(rootSector);
+			return;
+		}
+
+		// format: everything up to the root inode is in use
+		for (int sector = 0; sector <= rootSector; sector++)
+			setUsed(sector, true);
+		writeBitmap(0, rootSector);
+
+		root = new Inode(rootSector);
+		root.type = DIRECTORY;
+		root.flush();
+		inodes.put(rootSector, root);
+
+		Lib.bytesFromInt(superblock, 0, magic);
+		Lib.bytesFromInt(superblock, 4, numSectors);
+		Lib.bytesFromInt(superblock, 8, rootSector);
+		disk.write(0, superblock, 0, 1);
+	}
+
+	/**
+	 * Return the in-memory inode stored in the specified sector, reading it
+	 * if it is not loaded. Called with the lock held.
+	 */
+	private Inode getInode(int sector) {
+		Inode inode = inodes.get(sector);
+		if (inode == null) {
+			inode = new Inode(sector);
+			inode.load();
+			inodes.put(sector, inode);
+		}
+		return inode;
+	}
+
+	/**
+	 * Allocate and write an empty inode and enter it in a directory. Called
+	 * with the lock held.
+	 */
+	private Inode createInode(Inode parent, String leaf, int type) {
+		int[] run = allocate(parent.sector + 1, 1);
+		if (run == null)
+			return null;
+
+		Inode inode = new Inode(run[0]);
+		inode.type = type;
+		inode.flush();
+
+		if (!setEntry(parent, leaf, inode.sector)) {
+			inode.free();
+			return null;
+		}
+
+		inodes.put(inode.sector, inode);
+		return inode;
+	}
+
+	/**
+	 * Copy a file from the stub file system into the root directory, the
+	 * first time its name is looked up and not found. Called with the lock
+	 * held.
+	 *
+	 * @return the sector of the new inode, or 0 if it was not imported.
+	 */
+	private int importFile(String leaf) {
+		if (!importFiles || Machine.stubFileSystem() == null
+				|| !imported.add(leaf))
+			return 0;
+
+		OpenFile source = Machine.stubFileSystem().open(leaf, false);
+		if (source == null)
+			return 0;
+
+		Inode inode = createInode(root, leaf, FILE);
+		if (inode != null) {
+			byte[] buf = new byte[importChunk];
+			int pos = 0, amount;
+			while ((amount = source.read(pos, buf, 0, buf.length)) > 0) {
+				if (inode.write(pos, buf, 0, amount) < amount)
+					break;
+				pos += amount;
+			}
+
+			inode.trim(Lib.divRoundUp(inode.length, Disk.SectorSize));
+			inode.flush();
+		}
+
+		source.close();
+		return (inode != null) ? inode.sector : 0;
+	}
+
+	/**
+	 * Return the directory that would hold the specified path, or
+	 * <tt>null</tt> if there is no such directory. Called with the lock
+	 * held.
+	 */
+	private Inode lookupParent(String name) {
+		String[] components = split(name);
+		if (components == null || components.length == 0)
+			return null;
+
+		Inode directory = root;
+		for (int i = 0; i < components.length - 1; i++) {
+			int sector = findEntry(directory, components[i]);
+			if (sector == 0)
+				return null;
+
+			directory = getInode(sector);
+			if (directory.type != DIRECTORY)
+				return null;
+		}
+		return directory;
+	}
+
+	private static String leafName(String name) {
+		String[] components = split(name);
+		if (components == null || components.length == 0)
+			return null;
+
+		return components[components.length - 1];
+	}
+
+	private static String[] split(String name) {
+		ArrayList<String> components = new ArrayList<String>();
+		for (String component : name.split("/")) {
+			if (component.length() == 0)
+				continue;
+			if (component.getBytes().length > maxNameLength)
+				return null;
+			components.add(component);
+		}
+		return components.toArray(new String[components.size()]);
+	}
+
+	/**
+	 * Return the inode sector of an entry in a directory, or 0 if there is
+	 * none. Called with the lock held.
+	 */
+	private int findEntry(Inode directory, String leaf) {
+		byte[] entries = readDirectory(directory);
+		for (int i = 0; i < entries.length; i += entrySize) {
+			int sector = Lib.bytesToInt(entries, i);
+			if (sector != 0
+					&& Lib.bytesToString(entries, i + 4, maxNameLength + 1)
+							.equals(leaf))
+				return sector;
+		}
+		return 0;
+	}
+
+	/**
+	 * Set the inode sector of an entry in a directory, adding the entry if
+	 * there is none. Setting it to 0 removes the entry. Called with the lock
+	 * held.
+	 *
+	 * @return <tt>true</tt> on success.
+	 */
+	private boolean setEntry(Inode directory, String leaf, int sector) {
+		byte[] entries = readDirectory(directory);
+		int slot = -1;
+		for (int i = 0; i < entries.length; i += entrySize) {
+			int used = Lib.bytesToInt(entries, i);
+			if (used != 0
+					&& Lib.bytesToString(entries, i + 4, maxNameLength + 1)
+							.equals(leaf)) {
+				slot = i;
+				break;
+			}
+			if (used == 0 && slot == -1)
+				slot = i;
+		}
+		if (slot == -1)
+			slot = entries.length;
+
+		byte[] entry = new byte[entrySize];
+		Lib.bytesFromInt(entry, 0, sector);
+		byte[] bytes = leaf.getBytes();
+		System.arraycopy(bytes, 0, entry, 4, bytes.length);
+
+		if (directory.write(slot, entry, 0, entrySize) != entrySize)
+			return false;
+
+		directory.flush();
+		return true;
+	}
+
+	private boolean isEmpty(Inode directory) {
+		byte[] entries = readDirectory(directory);
+		for (int i = 0; i < entries.length; i += entrySize) {
+			if (Lib.bytesToInt(entries, i) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private byte[] readDirectory(Inode directory) {
+		byte[] entries = new byte[directory.length];
+		directory.read(0, entries, 0, entries.length);
+		return entries;
+	}
+
+	/**
+	 * Allocate a run of free sectors, preferring one that starts at or after
+	 * <i>goal</i>. Takes the first run of at least <i>want</i> sectors, or
+	 * the longest run if there is none that long.
+	 *
+	 * @return the first sector and length of the run, or <tt>null</tt> if
+	 * the disk is full.
+	 */
+	private int[] allocate(int goal, int want) {
+		bitmapLock.acquire();
+
+		if (goal <= rootSector || goal >= numSectors)
+			goal = rootSector + 1;
+
+		int bestStart = -1, bestLength = 0;
+		for (int pass = 0; pass < 2 && bestLength < want; pass++) {
+			int from = (pass == 0) ? goal : rootSector + 1;
+			int to = (pass == 0) ? numSectors : goal;
+
+			for (int sector = from; sector < to && bestLength < want;) {
+				if (isUsed(sector)) {
+					sector++;
+					continue;
+				}
+
+				int start = sector;
+				while (sector < numSectors && sector - start < want
+						&& !isUsed(sector))
+					sector++;
+
+				if (sector - start > bestLength) {
+					bestStart = start;
+					bestLength = sector - start;
+				}
+			}
+		}
+
+		int[] run = null;
+		if (bestLength > 0) {
+			for (int sector = bestStart; sector < bestStart + bestLength; sector++)
+				setUsed(sector, true);
+			writeBitmap(bestStart, bestStart + bestLength - 1);
+
+			run = new int[] { bestStart, bestLength };
+		}
+
+		bitmapLock.release();
+		return run;
+	}
+
+	/**
+	 * Allocate up to <i>want</i> free sectors starting at <i>start</i>.
+	 *
+	 * @return the number of sectors allocated.
+	 */
+	private int allocateAt(int start, int want) {
+		bitmapLock.acquire();
+
+		int count = 0;
+		while (count < want && start + count < numSectors
+				&& !isUsed(start + count)) {
+			setUsed(start + count, true);
+			count++;
+		}
+
+		if (count > 0)
+			writeBitmap(start, start + count - 1);
+
+		bitmapLock.release();
+		return count;
+	}
+
+	private void free(int start, int count) {
+		bitmapLock.acquire();
+
+		for (int sector = start; sector < start + count; sector++) {
+			Lib.assertTrue(isUsed(sector));
+			setUsed(sector, false);
+		}
+		writeBitmap(start, start + count - 1);
+
+		bitmapLock.release();
+	}
+
+	private boolean isUsed(int sector) {
+		return (bitmap[sector / 8] & (1 << (sector % 8))) != 0;
+	}
+
+	private void setUsed(int sector, boolean used) {
+		if (used)
+			bitmap[sector / 8] |= (1 << (sector % 8));
+		else
+			bitmap[sector / 8] &= ~(1 << (sector % 8));
+	}
+
+	/**
+	 * Write the bitmap sectors holding the bits of sectors <i>first</i>
+	 * through <i>last</i>.
+	 */
+	private void writeBitmap(int first, int last) {
+		int bitsPerSector = Disk.SectorSize * 8;
+		int firstBitmapSector = first / bitsPerSector;
+		int count = last / bitsPerSector - firstBitmapSector + 1;
+
+		disk.write(1 + firstBitmapSector, bitmap, firstBitmapSector
+				* Disk.SectorSize, count);
+	}
+
+	private SynchDisk disk;
+
+	private int numSectors, bitmapSectors, rootSector;
+
+	private int growSectors;
+
+	private boolean importFiles;
+
+	/** Protects the directories, the loaded inodes and the open counts. */
+	private Lock lock;
+
+	/** Protects the bitmap. Taken after an inode's lock, never before. */
+	private Lock bitmapLock;
+
+	private byte[] bitmap;
+
+	private Inode root = null;
+
+	/** The loaded inodes: every open file and every directory used. */
+	private HashMap<Integer, Inode> inodes = new HashMap<Integer, Inode>();
+
+	private HashSet<String> imported = new HashSet<String>();
+
+	private int openCount = 0;
+
+	private static final int magic = 0x4e414348;
+
+	private static final int FILE = 1, DIRECTORY = 2;
+
+	private static final int entrySize = 32, maxNameLength = entrySize - 5;
+
+	private static final int directExtents = 14, indirectExtents = 15;
+
+	private static final int importChunk = 4096;
+
+	/**
+	 * An inode in memory. Its extents are kept in two arrays, and are written
+	 * back to the disk by <tt>flush()</tt>. A file's data is read and written
+	 * with its lock held; a directory's only with the file system's lock
+	 * held.
+	 */
+	private class Inode {
+		Inode(int sector) {
+			this.sector = sector;
+		}
+
+		/**
+		 * Read this inode and its indirect sectors from the disk.
+		 */
+		void load() {
+			byte[] buf = new byte[Disk.SectorSize];
+			disk.read(sector, buf, 0, 1);
+
+			type = Lib.bytesToInt(buf, 0);
+			length = Lib.bytesToInt(buf, 4);
+			int count = Lib.bytesToInt(buf, 8);
+			int next = Lib.bytesToInt(buf, 12);
+
+			int slot = 16, limit = directExtents;
+			for (int i = 0; i < count; i++, slot += 8) {
+				if (i == limit) {
+					Lib.assertTrue(next != 0);
+					indirect.add(next);
+					disk.read(next, buf, 0, 1);
+					next = Lib.bytesToInt(buf, 0);
+					slot = 8;
+					limit += indirectExtents;
+				}
+
+				addExtent(Lib.bytesToInt(buf, slot), Lib.bytesToInt(buf, slot + 4));
+			}
+		}
+
+		/**
+		 * Write this inode and its indirect sectors to the disk, freeing the
+		 * indirect sectors it no longer needs.
+		 */
+		void flush() {
+			int needed = 0;
+			if (numExtents > directExtents)
+				needed = Lib.divRoundUp(numExtents - directExtents, indirectExtents);
+			// grow() reserves an indirect sector before it needs one
+			Lib.assertTrue(indirect.size() >= needed);
+			while (indirect.size() > needed)
+				NativeFileSystem.this.free(indirect.remove(indirect.size() - 1), 1);
+
+			byte[] buf = new byte[Disk.SectorSize];
+			Lib.bytesFromInt(buf, 0, type);
+			Lib.bytesFromInt(buf, 4, length);
+			Lib.bytesFromInt(buf, 8, numExtents);
+			Lib.bytesFromInt(buf, 12, needed > 0 ? indirect.get(0) : 0);
+
+			int i = 0;
+			for (; i < numExtents && i < directExtents; i++) {
+				Lib.bytesFromInt(buf, 16 + 8 * i, starts[i]);
+				Lib.bytesFromInt(buf, 20 + 8 * i, counts[i]);
+			}
+			disk.write(sector, buf, 0, 1);
+
+			for (int j = 0; j < needed; j++) {
+				buf = new byte[Disk.SectorSize];
+				Lib.bytesFromInt(buf, 0, (j + 1 < needed) ? indirect.get(j + 1) : 0);
+				for (int k = 0; k < indirectExtents && i < numExtents; k++, i++) {
+					Lib.bytesFromInt(buf, 8 + 8 * k, starts[i]);
+					Lib.bytesFromInt(buf, 12 + 8 * k, counts[i]);
+				}
+				disk.write(indirect.get(j), buf, 0, 1);
+			}
+
+			dirty = false;
+		}
+
+		int read(int pos, byte[] buf, int offset, int length) {
+			if (pos < 0 || length < 0 || offset < 0
+					|| offset + length > buf.length)
+				return -1;
+
+			length = Math.min(length, this.length - pos);
+			if (length <= 0)
+				return 0;
+
+			transfer(pos, buf, offset, length, false);
+			return length;
+		}
+
+		int write(int pos, byte[] buf, int offset, int length) {
+			if (pos < 0 || length < 0 || offset < 0
+					|| offset + length > buf.length)
+				return -1;
+
+			// a gap between the end of the file and pos reads as zeroes
+			while (this.length < pos) {
+				int amount = Math.min(pos - this.length, importChunk);
+				if (write(this.length, new byte[amount], 0, amount) < amount)
+					return 0;
+			}
+
+			grow(Lib.divRoundUp(pos + length, Disk.SectorSize));
+			length = Math.min(length, allocated * Disk.SectorSize - pos);
+			if (length <= 0)
+				return 0;
+
+			transfer(pos, buf, offset, length, true);
+
+			if (pos + length > this.length) {
+				this.length = pos + length;
+				dirty = true;
+			}
+			return length;
+		}
+
+		/**
+		 * Transfer bytes within the allocated sectors, with one disk request
+		 * for each extent they fall in.
+		 */
+		private void transfer(int pos, byte[] buf, int offset, int length,
+				boolean writing) {
+			int extentPos = 0;
+			for (int i = 0; i < numExtents && length > 0; i++) {
+				int extentLength = counts[i] * Disk.SectorSize;
+				if (pos < extentPos + extentLength) {
+					int amount = Math.min(length, extentPos + extentLength - pos);
+					disk.transfer(starts[i], pos - extentPos, buf, offset,
+							amount, writing);
+
+					pos += amount;
+					offset += amount;
+					length -= amount;
+				}
+				extentPos += extentLength;
+			}
+			Lib.assertTrue(length == 0);
+		}
+
+		/**
+		 * Allocate sectors until this file has at least <i>sectors</i> of
+		 * them, or the disk is full.
+		 */
+		private void grow(int sectors) {
+			if (allocated >= sectors)
+				return;
+
+			int want = Math.max(sectors - allocated, growSectors);
+
+			if (numExtents > 0) {
+				int end = starts[numExtents - 1] + counts[numExtents - 1];
+				int count = allocateAt(end, want);
+				if (count > 0) {
+					counts[numExtents - 1] += count;
+					allocated += count;
+					dirty = true;
+				}
+			}
+
+			while (allocated < sectors) {
+				// without room for the extent the write comes up short
+				if (!reserveExtent())
+					break;
+
+				int goal = (numExtents > 0) ? starts[numExtents - 1]
+						+ counts[numExtents - 1] : sector + 1;
+				int[] run = allocate(goal, Math.max(sectors - allocated,
+						growSectors));
+				if (run == null)
+					break;
+
+				addExtent(run[0], run[1]);
+				dirty = true;
+			}
+		}
+
+		/**
+		 * Make room for one more extent, allocating an indirect sector when
+		 * the ones this file has are full. An indirect sector left unused is
+		 * freed by the next <tt>flush()</tt>.
+		 *
+		 * @return <tt>true</tt> if there is room.
+		 */
+		private boolean reserveExtent() {
+			if (numExtents < directExtents + indirect.size() * indirectExtents)
+				return true;
+
+			int[] run = allocate(sector + 1, 1);
+			if (run == null)
+				return false;
+
+			indirect.add(run[0]);
+			dirty = true;
+			return true;
+		}
+
+		/**
+		 * Free every sector past the first <i>sectors</i> of this file.
+		 */
+		void trim(int sectors) {
+			while (allocated > sectors) {
+				int last = numExtents - 1;
+				int count = Math.min(counts[last], allocated - sectors);
+
+				NativeFileSystem.this.free(starts[last] + counts[last] - count,
+						count);
+
+				counts[last] -= count;
+				allocated -= count;
+				if (counts[last] == 0)
+					numExtents--;
+				dirty = true;
+			}
+		}
+
+		/**
+		 * Free this inode, its data and its indirect sectors.
+		 */
+		void free() {
+			trim(0);
+			while (!indirect.isEmpty())
+				NativeFileSystem.this.free(indirect.remove(indirect.size() - 1), 1);
+			NativeFileSystem.this.free(sector, 1);
+		}
+
+		private void addExtent(int start, int count) {
+			if (numExtents > 0
+					&& starts[numExtents - 1] + counts[numExtents - 1] == start) {
+				counts[numExtents - 1] += count;
+			}
+			else {
+				if (numExtents == starts.length) {
+					int[] newStarts = new int[starts.length * 2];
+					int[] newCounts = new int[counts.length * 2];
+					System.arraycopy(starts, 0, newStarts, 0, numExtents);
+					System.arraycopy(counts, 0, newCounts, 0, numExtents);
+					starts = newStarts;
+					counts = newCounts;
+				}
+				starts[numExtents] = start;
+				counts[numExtents] = count;
+				numExtents++;
+			}
+			allocated += count;
+		}
+
+		/** The sector holding this inode. */
+		int sector;
+
+		int type;
+
+		/** The length of the file, in bytes. */
+		int length = 0;
+
+		/** The number of sectors in the extents. */
+		int allocated = 0;
+
+		int numExtents = 0;
+
+		int[] starts = new int[directExtents], counts = new int[directExtents];
+
+		/** The indirect sectors holding the extents past the first few. */
+		ArrayList<Integer> indirect = new ArrayList<Integer>();
+
+		/** True if the length or extents changed since the last flush. */
+		boolean dirty = false;
+
+		/** The number of times this file is open. */
+		int openCount = 0;
+
+		/** True if this file was removed while open. */
+		boolean removed = false;
+
+		Lock lock = new Lock();
+	}
+
+	private class NativeOpenFile extends OpenFileWithPosition {
+		NativeOpenFile(Inode inode, String name) {
+			super(NativeFileSystem.this, name);
+
+			this.inode = inode;
+		}
+
+		public int read(int pos, byte[] buf, int offset, int length) {
+			if (inode == null)
+				return -1;
+
+			inode.lock.acquire();
+			int amount = inode.read(pos, buf, offset, length);
+			inode.lock.release();
+			return amount;
+		}
+
+		public int write(int pos, byte[] buf, int offset, int length) {
+			if (inode == null)
+				return -1;
+
+			inode.lock.acquire();
+			int amount = inode.write(pos, buf, offset, length);
+			inode.lock.release();
+			return amount;
+		}
+
+		public int length() {
+			return (inode == null) ? -1 : inode.length;
+		}
+
+		public void close() {
+			if (inode == null)
+				return;
+
+			lock.acquire();
+
+			openCount--;
+			if (--inode.openCount == 0) {
+				inode.lock.acquire();
+				if (inode.removed) {
+					inode.free();
+				}
+				else {
+					inode.trim(Lib.divRoundUp(inode.length, Disk.SectorSize));
+					if (inode.dirty)
+						inode.flush();
+					inodes.remove(inode.sector);
+				}
+				inode.lock.release();
+			}
+
+			lock.release();
+			inode = null;
+		}
+
+		private Inode inode;
+	}
+}
@@ -0,0 +1,26 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Shortest seek time first. Serves the request whose track is closest to the
+ * head, and the oldest of those if there is a tie. Requests far from a busy
+ * region of the disk can starve.
+ */
+public class SSTFDiskScheduler extends DiskScheduler {
+	/**
+	 * Allocate a new shortest seek time first disk scheduler.
+	 */
+	public SSTFDiskScheduler() {
+	}
+
+	protected SynchDisk.Request choose(int headTrack) {
+		SynchDisk.Request best = null;
+		for (SynchDisk.Request request : waiting) {
+			if (best == null
+					|| Math.abs(request.track - headTrack) < Math.abs(best.track - headTrack))
+				best = request;
+		}
+		return best;
+	}
+}
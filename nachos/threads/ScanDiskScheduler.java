@@ -0,0 +1,45 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * The elevator algorithm. The head sweeps in one direction, serving requests
+ * in track order as it reaches them, and turns around when there are none
+ * left ahead of it. The head turns at the last request rather than at the
+ * edge of the disk, since there is nothing to gain from the extra seek.
+ */
+public class ScanDiskScheduler extends DiskScheduler {
+	/**
+	 * Allocate a new elevator disk scheduler.
+	 */
+	public ScanDiskScheduler() {
+	}
+
+	protected SynchDisk.Request choose(int headTrack) {
+		SynchDisk.Request request = nextInDirection(headTrack);
+		if (request == null) {
+			up = !up;
+			request = nextInDirection(headTrack);
+		}
+		return request;
+	}
+
+	private SynchDisk.Request nextInDirection(int headTrack) {
+		SynchDisk.Request best = null;
+		for (SynchDisk.Request request : waiting) {
+			if (up) {
+				if (request.track >= headTrack
+						&& (best == null || before(request, best)))
+					best = request;
+			}
+			else {
+				if (request.track <= headTrack
+						&& (best == null || before(best, request)))
+					best = request;
+			}
+		}
+		return best;
+	}
+
+	private boolean up = true;
+}
@@ -0,0 +1,238 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A synchronous interface to the disk. A thread that reads or writes blocks
+ * until its request is done. Requests that arrive while the disk is busy
+ * wait in a queue ordered by a <tt>DiskScheduler</tt>, named by the
+ * <tt>SynchDisk.scheduler</tt> key in <tt>nachos.conf</tt>, so concurrent
+ * traffic can be reordered to cut seeks.
+ */
+public class SynchDisk {
+	/**
+	 * Allocate a new synchronous disk.
+	 *
+	 * @param disk the disk to use.
+	 */
+	public SynchDisk(Disk disk) {
+		this.disk = disk;
+
+		scheduler = (DiskScheduler) Lib.constructObject(Config.getString(
+				"SynchDisk.scheduler", "nachos.threads.FCFSDiskScheduler"));
+		scheduler.initialize(disk.getNumTracks());
+		Machine.setDiskScheduler(scheduler.getName());
+
+		disk.setInterruptHandler(new Runnable() {
+			public void run() {
+				requestDone();
+			}
+		});
+	}
+
+	/**
+	 * Read <i>numSectors</i> sectors, starting at <i>sector</i>, into
+	 * <i>buf</i>.
+	 *
+	 * @param sector the first sector to read.
+	 * @param buf the buffer to read into.
+	 * @param offset the first byte of the buffer to read into.
+	 * @param numSectors the number of sectors to read.
+	 */
+	public void read(int sector, byte[] buf, int offset, int numSectors) {
+		request(new Request(sector, buf, offset, numSectors, false));
+	}
+
+	/**
+	 * Write <i>numSectors</i> sectors from <i>buf</i>, starting at
+	 * <i>sector</i>.
+	 *
+	 * @param sector the first sector to write.
+	 * @param buf the buffer to write from.
+	 * @param offset the first byte of the buffer to write from.
+	 * @param numSectors the number of sectors to write.
+	 */
+	public void write(int sector, byte[] buf, int offset, int numSectors) {
+		request(new Request(sector, buf, offset, numSectors, true));
+	}
+
+	private void request(Request request) {
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (current == null)
+			start(request);
+		else
+			scheduler.add(request);
+
+		Machine.interrupt().restore(intStatus);
+
+		request.done.P();
+	}
+
+	private void start(Request request) {
+		current = request;
+
+		if (request.writing)
+			disk.writeRequest(request.sector, request.buf, request.offset,
+					request.numSectors);
+		else
+			disk.readRequest(request.sector, request.buf, request.offset,
+					request.numSectors);
+	}
+
+	private void requestDone() {
+		Request finished = current;
+		current = null;
+
+		Request next = scheduler.next(disk.getHeadTrack());
+		if (next != null)
+			start(next);
+
+		finished.done.V();
+	}
+
+	/**
+	 * Return the disk below this interface.
+	 *
+	 * @return the disk.
+	 */
+	public Disk getDisk() {
+		return disk;
+	}
+
+	/**
+	 * Open a run of consecutive sectors as a file. Position 0 of the file is
+	 * the start of sector <i>firstSector</i>. Reads and writes that cover
+	 * whole sectors go straight to the disk; see <tt>transfer()</tt> for the
+	 * others.
+	 *
+	 * @param name the name of the file.
+	 * @param firstSector the first sector of the partition.
+	 * @param numSectors the number of sectors in the partition.
+	 * @return the partition.
+	 */
+	public OpenFile openPartition(String name, int firstSector, int numSectors) {
+		Lib.assertTrue(firstSector >= 0 && numSectors >= 0
+				&& firstSector + numSectors <= disk.getNumSectors());
+
+		return new Partition(name, firstSector, numSectors);
+	}
+
+	/**
+	 * Transfer <i>length</i> bytes starting <i>pos</i> bytes into a run of
+	 * sectors that starts at <i>firstSector</i>, as one request if the bytes
+	 * cover whole sectors. Otherwise the partial sectors are read first, so
+	 * concurrent partial writes to the same sector must be serialized by the
+	 * caller.
+	 */
+	void transfer(int firstSector, int pos, byte[] buf, int offset,
+			int length, boolean writing) {
+		int first = firstSector + pos / Disk.SectorSize;
+		int last = firstSector + (pos + length - 1) / Disk.SectorSize;
+		int count = last - first + 1;
+
+		if (pos % Disk.SectorSize == 0 && length % Disk.SectorSize == 0) {
+			if (writing)
+				write(first, buf, offset, count);
+			else
+				read(first, buf, offset, count);
+			return;
+		}
+
+		byte[] bounce = new byte[count * Disk.SectorSize];
+		int start = pos % Disk.SectorSize;
+
+		if (!writing) {
+			read(first, bounce, 0, count);
+			System.arraycopy(bounce, start, buf, offset, length);
+			return;
+		}
+
+		// keep the rest of the partial sectors at either end
+		if (start != 0)
+			read(first, bounce, 0, 1);
+		if ((start + length) % Disk.SectorSize != 0
+				&& (last != first || start == 0))
+			read(last, bounce, (count - 1) * Disk.SectorSize, 1);
+
+		System.arraycopy(buf, offset, bounce, start, length);
+		write(first, bounce, 0, count);
+	}
+
+	private Disk disk;
+
+	private DiskScheduler scheduler;
+
+	private Request current = null;
+
+	/**
+	 * A request for the disk.
+	 */
+	public static class Request {
+		Request(int sector, byte[] buf, int offset, int numSectors,
+				boolean writing) {
+			this.sector = sector;
+			this.track = Machine.disk().getTrack(sector);
+			this.buf = buf;
+			this.offset = offset;
+			this.numSectors = numSectors;
+			this.writing = writing;
+		}
+
+		/** The first sector to transfer. */
+		public int sector;
+
+		/** The track holding the first sector. */
+		public int track;
+
+		/** The number of sectors to transfer. */
+		public int numSectors;
+
+		/** True if this request writes to the disk. */
+		public boolean writing;
+
+		byte[] buf;
+
+		int offset;
+
+		Semaphore done = new Semaphore(0);
+	}
+
+	private class Partition extends OpenFileWithPosition {
+		Partition(String name, int firstSector, int numSectors) {
+			super(null, name);
+
+			this.firstSector = firstSector;
+			this.length = numSectors * Disk.SectorSize;
+		}
+
+		public int read(int pos, byte[] buf, int offset, int length) {
+			return transfer(pos, buf, offset, length, false);
+		}
+
+		public int write(int pos, byte[] buf, int offset, int length) {
+			return transfer(pos, buf, offset, length, true);
+		}
+
+		private int transfer(int pos, byte[] buf, int offset, int length,
+				boolean writing) {
+			if (pos < 0 || length < 0 || offset < 0
+					|| offset + length > buf.length)
+				return -1;
+
+			length = Math.min(length, this.length - pos);
+			if (length <= 0)
+				return 0;
+
+			SynchDisk.this.transfer(firstSector, pos, buf, offset, length,
+					writing);
+			return length;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		private int firstSector, length;
+	}
+}
@@ -15,13 +15,18 @@ public class ThreadedKernel extends Kernel {
 
 	/**
 	 * Initialize this kernel. Creates a scheduler, the first thread, and an
-	 * alarm, and enables interrupts. Creates a file system if necessary.
+	 * alarm, and enables interrupts. Creates a disk driver and a file system
+	 * if necessary.
 	 */
 	public void initialize(String[] args) {
 		// set scheduler
 		String schedulerName = Config.getString("ThreadedKernel.scheduler");
 		scheduler = (Scheduler) Lib.constructObject(schedulerName);
 
+		// set disk
+		if (Machine.disk() != null)
+			disk = new SynchDisk(Machine.disk());
+
 		// set fileSystem
 		String fileSystemName = Config.getString("ThreadedKernel.fileSystem");
 		if (fileSystemName != null)
@@ -65,9 +70,13 @@ public class ThreadedKernel extends Kernel {
 	}
 
 	/**
-	 * Terminate this kernel. Never returns.
+	 * Terminate this kernel. Writes back file data still in the buffer cache,
+	 * including that of files left open. Never returns.
 	 */
 	public void terminate() {
+		if (fileSystem instanceof CachedFileSystem)
+			((CachedFileSystem) fileSystem).flush();
+
 		Machine.halt();
 	}
 
@@ -80,6 +89,9 @@ public class ThreadedKernel extends Kernel {
 	/** Globally accessible reference to the file system. */
 	public static FileSystem fileSystem = null;
 
+	/** Globally accessible reference to the disk, if there is one. */
+	public static SynchDisk disk = null;
+
 	// dummy variables to make javac smarter
 	private static RoundRobinScheduler dummy1 = null;
 
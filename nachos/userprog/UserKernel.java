@@ -35,6 +35,7 @@ public class UserKernel extends ThreadedKernel {
 		//physical pages is shared resource, so we have to add lock here.
 		lock = new Lock();
 		Processlock = new Lock();
+		fileRefs = new HashMap<OpenFile,Integer>();
 		int physicalPages = Machine.processor().getNumPhysPages();
 		freeList = new LinkedList<Integer>(); 
 		for (int i = 0; i < physicalPages; i++){
@@ -143,4 +144,7 @@ public class UserKernel extends ThreadedKernel {
 	public static LinkedList<Integer> freeList;
 	public static Lock lock;
 	public static Lock Processlock;
+	//How many processes besides one hold each open file shared by fork(),
+	//so only the last to close it closes it.
+	public static HashMap<OpenFile,Integer> fileRefs;
 }
\ No newline at end of file
@@ -166,45 +166,8 @@ public class UserProcess {
 	public int readVirtualMemory(int vaddr, byte[] data, int offset, int length) {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
-		
-		int transferredBytes = 0;
-		int amount = 0;
-		// byte[] memory = Machine.processor().getMemory();
-
-		// // for now, just assume that virtual addresses equal physical addresses
-		// if (vaddr < 0 || vaddr >= memory.length)
-		// 	return 0;
-
-		// int amount = Math.min(length, memory.length - vaddr);
-		// System.arraycopy(memory, vaddr, data, offset, amount);
-		byte[] memory = Machine.processor().getMemory();
-		while(length > 0){
-			int vpn = Processor.pageFromAddress(vaddr);
-			int vpn_offset = Processor.offsetFromAddress(vaddr);
-
-			if (pageTable[vpn] == null){
-				return -1;
-			}
-			int ppn = pageTable[vpn].ppn;
-			int physcial_address = Processor.makeAddress(ppn, vpn_offset);
-
-			amount = Math.min(length, pageSize-vpn_offset);
-
-			if (physcial_address < 0 || physcial_address >= memory.length)
-				return -1;
-
-			System.arraycopy(memory, physcial_address, data, offset, amount);
 
-			length -= amount;
-			transferredBytes += amount;
-			vaddr += amount;
-			offset += amount;
-			
-			//how about the offset, very confused on this part.
-		}
-		
-
-		return transferredBytes;
+		return transfer(vaddr, data, offset, length, false);
 	}
 
 	/**
@@ -237,60 +200,146 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
-		// byte[] memory = Machine.processor().getMemory();
-
-		// // for now, just assume that virtual addresses equal physical addresses
-		// if (vaddr < 0 || vaddr >= memory.length)
-		// 	return 0;
+		return transfer(vaddr, data, offset, length, true);
+	}
 
-		// int amount = Math.min(length, memory.length - vaddr);
-		// System.arraycopy(data, offset, memory, vaddr, amount);
+	/**
+	 * Copy data between virtual memory and an array, or between virtual
+	 * memory and a file, a batch of pinned pages at a time. Exactly one of
+	 * <i>data</i> and <i>file</i> is not null. Each batch takes one file
+	 * operation, straight to or from physical memory if its pages are
+	 * consecutive there.
+	 *
+	 * @param vaddr the first byte of virtual memory to transfer.
+	 * @param data the array to copy to or from, or null.
+	 * @param offset the first byte of the array to transfer.
+	 * @param file the file to read or write at its current position, or
+	 * null.
+	 * @param length the number of bytes to transfer.
+	 * @param toMemory whether the data is copied into virtual memory.
+	 * @return the number of bytes transferred, or -1 if part of the range is
+	 * not mapped, or is read-only and <i>toMemory</i> is set. Stops early at
+	 * the end of the address space or of the file.
+	 */
+	private int transfer(int vaddr, byte[] data, int offset, OpenFile file,
+			int length, boolean toMemory) {
+		if (vaddr < 0 || vaddr >= pageTable.length * pageSize)
+			return length == 0 ? 0 : -1;
+		length = Math.min(length, pageTable.length * pageSize - vaddr);
 
-		// return amount;
 		int transferredBytes = 0;
-		int amount = 0;
-		//System.out.println("The length (readBytes) is: " + length);
-		//String string = new String(data);
-
-		//System.out.println("In the writeVirtualMemeory the data will be: " + string);
-		byte[] memory = Machine.processor().getMemory();
-		while(length > 0){
-			int vpn = Processor.pageFromAddress(vaddr);
-			int vpn_offset = Processor.offsetFromAddress(vaddr);
-
-			if (pageTable[vpn].readOnly){
-				//System.out.println("The reason is the page table is read only");
+		while (length > 0) {
+			int[] ppns = pinPages(vaddr, length, toMemory);
+			if (ppns == null)
 				return -1;
-			}
 
-			if (pageTable[vpn] == null){
-				//System.out.println("The reason is the page is null.");
-				return -1;
+			int pageOffset = Processor.offsetFromAddress(vaddr);
+			int amount = Math.min(length, ppns.length * pageSize - pageOffset);
+			int moved = amount;
+			if (file == null) {
+				copyPages(ppns, pageOffset, data, offset, amount, toMemory);
 			}
-			int ppn = pageTable[vpn].ppn;
-			int physcial_address = Processor.makeAddress(ppn, vpn_offset);
-
-			amount = Math.min(length, pageSize-vpn_offset);
+			else if (isContiguous(ppns)) {
+				byte[] memory = Machine.processor().getMemory();
+				int paddr = Processor.makeAddress(ppns[0], pageOffset);
+				moved = toMemory ? file.read(memory, paddr, amount)
+						: file.write(memory, paddr, amount);
+			}
+			else {
+				byte[] buffer = new byte[amount];
+				if (!toMemory)
+					copyPages(ppns, pageOffset, buffer, 0, amount, false);
+				moved = toMemory ? file.read(buffer, 0, amount)
+						: file.write(buffer, 0, amount);
+				if (toMemory && moved > 0)
+					copyPages(ppns, pageOffset, buffer, 0, moved, true);
+			}
+			unpinPages(ppns);
 
-			if (physcial_address < 0 || physcial_address >= memory.length){
-				//System.out.println("The reason is the pm is invalid.");
+			if (moved == -1)
 				return -1;
-			}
-			System.arraycopy(data, offset, memory, physcial_address, amount);
-			//System.out.println("The offset will be: " + offset + " and in this offset, we transfer the");
+			transferredBytes += moved;
+			if (moved < amount)
+				break;
 
-			length -= amount;
-			transferredBytes += amount;
 			vaddr += amount;
 			offset += amount;
-			
-			//how about the offset, very confused on this part.
+			length -= amount;
 		}
-		//System.out.println("The transferred Bytes(write bytes): " + transferredBytes);
 
 		return transferredBytes;
 	}
 
+	/**
+	 * Copy data between pinned physical pages and an array.
+	 */
+	private void copyPages(int[] ppns, int pageOffset, byte[] data,
+			int offset, int length, boolean toMemory) {
+		byte[] memory = Machine.processor().getMemory();
+		for (int i = 0; length > 0; i++) {
+			int paddr = Processor.makeAddress(ppns[i], pageOffset);
+			int amount = Math.min(length, pageSize - pageOffset);
+			if (toMemory)
+				System.arraycopy(data, offset, memory, paddr, amount);
+			else
+				System.arraycopy(memory, paddr, data, offset, amount);
+
+			offset += amount;
+			length -= amount;
+			pageOffset = 0;
+		}
+	}
+
+	private static boolean isContiguous(int[] ppns) {
+		for (int i = 1; i < ppns.length; i++) {
+			if (ppns[i] != ppns[i - 1] + 1)
+				return false;
+		}
+		return true;
+	}
+
+	private int transfer(int vaddr, byte[] data, int offset, int length,
+			boolean toMemory) {
+		return transfer(vaddr, data, offset, null, length, toMemory);
+	}
+
+	/**
+	 * Return the physical pages holding the virtual pages from <i>vaddr</i>
+	 * onwards, up to <i>vaddr+length-1</i>, and keep them there until
+	 * <tt>unpinPages()</tt>. May return fewer pages than the range covers, but
+	 * returns at least one. All the pages of a process are always in memory,
+	 * so this just translates the whole range.
+	 *
+	 * @param vaddr the first byte to be transferred.
+	 * @param length the number of bytes to be transferred.
+	 * @param writing whether the pages will be written.
+	 * @return the physical page of each virtual page, or null if one of them
+	 * is not mapped, or is read-only and <i>writing</i> is set.
+	 */
+	protected int[] pinPages(int vaddr, int length, boolean writing) {
+		int firstVpn = Processor.pageFromAddress(vaddr);
+		int lastVpn = Processor.pageFromAddress(vaddr + length - 1);
+		int[] ppns = new int[lastVpn - firstVpn + 1];
+		for (int i = 0; i < ppns.length; i++) {
+			TranslationEntry entry = pageTable[firstVpn + i];
+			if (entry == null || !entry.valid || (writing && entry.readOnly))
+				return null;
+			entry.used = true;
+			if (writing)
+				entry.dirty = true;
+			ppns[i] = entry.ppn;
+		}
+		return ppns;
+	}
+
+	/**
+	 * Release the pages returned by <tt>pinPages()</tt>.
+	 *
+	 * @param ppns the pinned physical pages.
+	 */
+	protected void unpinPages(int[] ppns) {
+	}
+
 	/**
 	 * Load the executable with the specified name into this process, and
 	 * prepare to pass it the specified arguments. Opens the executable, reads
@@ -345,6 +394,8 @@ public class UserProcess {
 			return false;
 		}
 
+		executableName = name;
+
 		// program counter initially points at the program entry point
 		initialPC = coff.getEntryPoint();
 
@@ -395,7 +446,7 @@ public class UserProcess {
 		}
 		pageTable = new TranslationEntry[numPages];
 		for (int vpn = 0; vpn < numPages; vpn++){
-			int ppn = freeList.get(vpn);
+			int ppn = freeList.remove();
 			pageTable[vpn] = new TranslationEntry(vpn, ppn, true, false, false, false);
 		}
 
@@ -414,8 +465,7 @@ public class UserProcess {
 			// }
 			for (int i = 0; i < section.getLength(); i++) {
 				int vpn = section.getFirstVPN() + i;
-				int ppn = freeList.remove();
-				pageTable[vpn] = new TranslationEntry(vpn, ppn, true, readOnly, false, false);
+				pageTable[vpn].readOnly = readOnly;
 				section.loadPage(i, pageTable[vpn].ppn);
 			}
 		}
@@ -424,6 +474,33 @@ public class UserProcess {
 		return true;
 	}
 
+	/**
+	 * Give this process, a child being forked, a copy of the address space of
+	 * <i>parent</i>, which has the same number of pages. Copies every page.
+	 * 
+	 * @param parent the process being forked.
+	 * @return <tt>true</tt> if the address space was successfully copied.
+	 */
+	protected boolean copyAddressSpace(UserProcess parent) {
+		UserKernel.lock.acquire();
+		if (numPages > freeList.size()) {
+			Lib.debug(dbgProcess, "\tinsufficient physical memory");
+			UserKernel.lock.release();
+			return false;
+		}
+		byte[] memory = Machine.processor().getMemory();
+		pageTable = new TranslationEntry[numPages];
+		for (int vpn = 0; vpn < numPages; vpn++){
+			int ppn = freeList.remove();
+			TranslationEntry entry = parent.pageTable[vpn];
+			pageTable[vpn] = new TranslationEntry(vpn, ppn, true, entry.readOnly, false, false);
+			System.arraycopy(memory, entry.ppn * pageSize, memory, ppn * pageSize, pageSize);
+		}
+		UserKernel.lock.release();
+
+		return true;
+	}
+
 	/**
 	 * Release any resources allocated by <tt>loadSections()</tt>.
 	 */
@@ -447,6 +524,13 @@ public class UserProcess {
 	public void initRegisters() {
 		Processor processor = Machine.processor();
 
+		// a forked child starts where its parent was
+		if (forkRegisters != null) {
+			for (int i = 0; i < Processor.numUserRegisters; i++)
+				processor.writeRegister(i, forkRegisters[i]);
+			return;
+		}
+
 		// by default, everything's 0
 		for (int i = 0; i < processor.numUserRegisters; i++)
 			processor.writeRegister(i, 0);
@@ -468,10 +552,10 @@ public class UserProcess {
 			return -1;
 		}
 
-		//System.out.println("why you come here.");
-		Machine.halt();
+		// let the kernel clean up, e.g. write back cached file data
+		Kernel.kernel.terminate();
 
-		Lib.assertNotReached("Machine.halt() did not halt machine!");
+		Lib.assertNotReached("Kernel.kernel.terminate() did not halt machine!");
 		return 0;
 	}
 
@@ -535,8 +619,19 @@ public class UserProcess {
 			return -1;
 		}
 
+		unmapFile(fd);
 		OpenFile openfile = fileDescriptor.get(fd);
-		openfile.close();
+		//a file shared with a forked process stays open until both close it
+		Integer refs = UserKernel.fileRefs.get(openfile);
+		if (refs == null){
+			openfile.close();
+		}
+		else if (refs == 1){
+			UserKernel.fileRefs.remove(openfile);
+		}
+		else{
+			UserKernel.fileRefs.put(openfile, refs - 1);
+		}
 		fileDescriptor.set(fd, null);
 
 		return 0;
@@ -561,11 +656,11 @@ public class UserProcess {
 		}
 
 		//check the buffer_address
-		if (buffer_address < 0 || buffer_address >= (numPages * pageSize)){
+		if (buffer_address < 0 || buffer_address >= (pageTable.length * pageSize)){
 			return -1;
 		}
 
-		if ((buffer_address + count) >= (numPages * pageSize)){
+		if ((buffer_address + count) > (pageTable.length * pageSize)){
 			return -1;
 		}
 		//check the file Descriptor part.
@@ -573,55 +668,12 @@ public class UserProcess {
 			return -1;
 		}
 
-		if (fileDescriptor.get(fd) == null){
+		if (fileDescriptor.get(fd) == null || isMapped(fd)){
 			return -1;
 		}
 
-		//return how many bytes of readBytes we have.
-		int transferredBytes = 0;
-		int readBytes = 0;
-		int writeBytes = 0;
-		int amount = 0;
-
-		//That's the buffer bytes that we use for storing read bytes for every time.
-		
-
-		while(count > 0){
-			byte[] buf = new byte[pageSize];
-			if (count < pageSize){
-				amount = count;
-			}else {
-				amount = pageSize;
-			}
-			// if the file will reach to the end before amount of data, it will read as much as possible bytes in the file.
-			//Thus, the readBytes is not equal to the amount for some time.
-			readBytes = fileDescriptor.get(fd).read(buf, 0, amount);
-			if (readBytes == -1)
-				return -1;
-			
-			writeBytes = writeVirtualMemory(buffer_address, buf, 0, readBytes);
-
-			//we are not successfully transfer data.
-			if (writeBytes != readBytes){
-				//System.out.println("That's the reason that fail in the writeVirtualMemory: writeBytes != readBytes.");
-				return -1;
-			}
-			
-			//update count, buffer_address, transferredBytes.
-
-			count -= amount;
-			transferredBytes += readBytes;
-			buffer_address += amount;
-
-			// means we already read to the end of the file.
-			if (readBytes < amount){
-				break;
-			}
-			//String string = new String(buf);
-			//System.out.println("the buffer will be in read: " + string);
-
-		}
-		return transferredBytes;
+		//read straight into the pages of the buffer
+		return transfer(buffer_address, null, 0, fileDescriptor.get(fd), count, true);
 	}
 
 
@@ -634,11 +686,11 @@ public class UserProcess {
 		}
 
 		//check the buffer_address
-		if (buffer_address < 0 || buffer_address >= (numPages * pageSize)){
+		if (buffer_address < 0 || buffer_address >= (pageTable.length * pageSize)){
 			return -1;
 		}
 
-		if ((buffer_address + count) >= (numPages * pageSize)){
+		if ((buffer_address + count) > (pageTable.length * pageSize)){
 			return -1;
 		}
 		//check the file Descriptor part.
@@ -646,58 +698,11 @@ public class UserProcess {
 			return -1;
 		}
 
-		if (fileDescriptor.get(fd) == null){
+		if (fileDescriptor.get(fd) == null || isMapped(fd)){
 			return -1;
 		}
-		//System.out.println("after edge case in write.");
-		//return how many bytes of readBytes we have.
-		int transferredBytes = 0;
-		int readBytes = 0;
-		int writeBytes = 0;
-		int amount = 0;
-
-		//That's the buffer bytes that we use for storing read bytes for every time.
-		
-		int byte_count = count;
-
-		while(byte_count > 0){
-			byte[] buf = new byte[pageSize];
-			if (byte_count < pageSize){
-				amount = byte_count;
-			}else{
-				amount = pageSize;
-			}
-			readBytes = readVirtualMemory(buffer_address, buf, 0, amount);
-			// if (readBytes == 0){
-			// 	System.out.println("It has error in vm.");
-			// }
-			//System.out.println("Read Bytes is: " + readBytes);
-
-			writeBytes = fileDescriptor.get(fd).write(buf, 0, amount);
-			//System.out.println("The WB is: " + writeBytes);
-			if (writeBytes == -1)
-				return -1;
-		
-			//we are not successfully transfer data.
-			if (writeBytes != readBytes){
-				return -1;
-			}
-			
-			//update count, buffer_address, transferredBytes.
-			//System.out.println("before updating, the count is: " + byte_count);
-			byte_count -= amount;
-			transferredBytes += writeBytes;
-			buffer_address += amount;
-			//System.out.println("Now, the count is: " + byte_count);
-
-			// means we already reach to the end of the file.
-			if (writeBytes < amount){
-				break;
-			}
-			//System.out.println("Every time the buffer will be: " + buf);
-
-		}
-		return transferredBytes;
+		//write straight from the pages of the buffer
+		return transfer(buffer_address, null, 0, fileDescriptor.get(fd), count, false);
 	}
 
 	/**
@@ -793,6 +798,113 @@ public class UserProcess {
 		//readVirtualMemory
 		return -1; 	
 	}
+	/**
+	 * Return the file open as file descriptor <i>fd</i>.
+	 *
+	 * @return the open file, or <tt>null</tt> if <i>fd</i> is not open.
+	 */
+	protected OpenFile getOpenFile(int fd){
+		if (fd < 0 || fd > 15){
+			return null;
+		}
+		return fileDescriptor.get(fd);
+	}
+
+	/**
+	 * Test whether the file open as file descriptor <i>fd</i> is mapped into
+	 * memory, so it cannot be read or written.
+	 */
+	protected boolean isMapped(int fd){
+		return false;
+	}
+
+	/**
+	 * Remove any memory map of the file open as file descriptor <i>fd</i>,
+	 * which is being closed.
+	 */
+	protected void unmapFile(int fd){
+	}
+
+	/**
+	 * Handle the fork() system call. The child runs the same program as this
+	 * process, with a copy of its address space and registers, and shares its
+	 * open files. fork() returns 0 in the child.
+	 */
+	private int handleFork(){
+		UserProcess child = UserProcess.newUserProcess();
+		child.parent = this;
+		if (!child.forkFrom(this)){
+			//give back the console files and the pid the child was given
+			for (int i = 0; i < 16; i++){
+				child.handleClose(i);
+			}
+			UserKernel.Processlock.acquire();
+			UserKernel.num_process --;
+			if (UserKernel.next_process_id == child.current_process_id + 1){
+				UserKernel.next_process_id --;
+			}
+			UserKernel.Processlock.release();
+			return -1;
+		}
+		childid_to_childprocess.put(child.current_process_id, child);
+
+		child.thread = new UThread(child);
+		child.thread.setName(executableName).fork();
+		return child.current_process_id;
+	}
+
+	/**
+	 * Make this new process a copy of <i>parent</i>, which is in the fork()
+	 * syscall.
+	 *
+	 * @return <tt>true</tt> if successful.
+	 */
+	private boolean forkFrom(UserProcess parent){
+		OpenFile file = ThreadedKernel.fileSystem.open(parent.executableName, false);
+		if (file == null){
+			return false;
+		}
+		try {
+			coff = new Coff(file);
+		}
+		catch (EOFException e) {
+			file.close();
+			return false;
+		}
+		executableName = parent.executableName;
+		numPages = parent.numPages;
+		initialPC = parent.initialPC;
+		initialSP = parent.initialSP;
+		argc = parent.argc;
+		argv = parent.argv;
+
+		if (!copyAddressSpace(parent)){
+			coff.close();
+			return false;
+		}
+
+		//the child returns 0 from the syscall
+		Processor processor = Machine.processor();
+		forkRegisters = new int[Processor.numUserRegisters];
+		for (int i = 0; i < Processor.numUserRegisters; i++){
+			forkRegisters[i] = processor.readRegister(i);
+		}
+		forkRegisters[Processor.regV0] = 0;
+		forkRegisters[Processor.regPC] = forkRegisters[Processor.regNextPC];
+		forkRegisters[Processor.regNextPC] += 4;
+
+		for (int i = 0; i < 16; i++){
+			handleClose(i);
+			OpenFile openfile = parent.fileDescriptor.get(i);
+			if (openfile != null){
+				Integer refs = UserKernel.fileRefs.get(openfile);
+				UserKernel.fileRefs.put(openfile, refs == null ? 1 : refs + 1);
+				fileDescriptor.set(i, openfile);
+			}
+		}
+		return true;
+	}
+
 	private int handleExit(int status) {
 		//System.out.println("EXIT PID  "+current_process_id);
 		// Do not remove this call to the autoGrader...
@@ -837,7 +949,7 @@ public class UserProcess {
 	private static final int syscallHalt = 0, syscallExit = 1, syscallExec = 2,
 			syscallJoin = 3, syscallCreate = 4, syscallOpen = 5,
 			syscallRead = 6, syscallWrite = 7, syscallClose = 8,
-			syscallUnlink = 9;
+			syscallUnlink = 9, syscallFork = 13;
 
 	/**
 	 * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -891,6 +1003,10 @@ public class UserProcess {
 	 * <td>9</td>
 	 * <td><tt>int  unlink(char *name);</tt></td>
 	 * </tr>
+	 * <tr>
+	 * <td>13</td>
+	 * <td><tt>int  fork();</tt></td>
+	 * </tr>
 	 * </table>
 	 * 
 	 * @param syscall the syscall number.
@@ -922,6 +1038,8 @@ public class UserProcess {
 			return handleWrite(a0, a1, a2);
 		case syscallExec:
 			return handleExec(a0, a1, a2);
+		case syscallFork:
+			return handleFork();
 		default:
 			Lib.debug(dbgProcess, "Unknown syscall " + syscall);
 			Lib.assertNotReached("Unknown system call!");
@@ -963,6 +1081,9 @@ public class UserProcess {
 	/** The program being run by this process. */
 	protected Coff coff;
 
+	/** The name of the file containing the program. */
+	protected String executableName;
+
 	/** This process's page table. */
 	protected TranslationEntry[] pageTable;
 
@@ -979,6 +1100,9 @@ public class UserProcess {
 
 	private int argc, argv;
 
+	/** The registers a forked child starts with, or null. */
+	private int[] forkRegisters;
+
 	private static final int pageSize = Processor.pageSize;
 
 	private static final char dbgProcess = 'a';
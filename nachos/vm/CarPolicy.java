@@ -0,0 +1,145 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import java.util.*;
+
+/**
+ * CAR (Clock with Adaptive Replacement), which gives ARC's resistance to scans
+ * using only the used bits a clock needs. Resident pages are kept in two
+ * clocks: <i>T1</i> holds pages used once since they were paged in, and
+ * <i>T2</i> holds pages used again after that. The histories <i>B1</i> and
+ * <i>B2</i> remember the pages recently evicted from each clock. A fault on a
+ * page in <i>B1</i> means <i>T1</i> is too small, and grows its target size
+ * <i>p</i>; a fault on a page in <i>B2</i> shrinks it.
+ *
+ * <p>
+ * Pinned pages are passed over without changing their used bits.
+ */
+public class CarPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new CAR policy.
+	 */
+	public CarPolicy() {
+	}
+
+	public void initialize(int numPhysPages) {
+		super.initialize(numPhysPages);
+
+		list = new int[numPhysPages];
+	}
+
+	public void pageIn(int ppn) {
+		Long key = key(ppn);
+
+		if (b1.remove(key)) {
+			p = Math.min(p + Math.max(1, b2.size() / Math.max(1, b1.size())),
+					numPhysPages);
+			add(t2, ppn, 2);
+		}
+		else if (b2.remove(key)) {
+			p = Math.max(p - Math.max(1, b1.size() / Math.max(1, b2.size())), 0);
+			add(t2, ppn, 2);
+		}
+		else {
+			// keep the histories from remembering more than the memory holds
+			if (t1.size() + b1.size() >= numPhysPages && !b1.isEmpty())
+				removeOldest(b1);
+			else if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * numPhysPages
+					&& !b2.isEmpty())
+				removeOldest(b2);
+
+			add(t1, ppn, 1);
+		}
+	}
+
+	public void pageFreed(int ppn) {
+		if (list[ppn] == 1)
+			t1.remove(Integer.valueOf(ppn));
+		else if (list[ppn] == 2)
+			t2.remove(Integer.valueOf(ppn));
+
+		list[ppn] = 0;
+	}
+
+	public int chooseVictim() {
+		// how many pinned pages in a row each clock has passed over
+		int pinned1 = 0, pinned2 = 0;
+
+		while (true) {
+			boolean useT1 = t1.size() >= Math.max(1, p);
+			if (useT1 && pinned1 >= t1.size())
+				useT1 = false;
+			else if (!useT1 && pinned2 >= t2.size())
+				useT1 = true;
+
+			Lib.assertTrue(pinned1 < t1.size() || pinned2 < t2.size(),
+					"no unpinned page");
+
+			LinkedList<Integer> clock = useT1 ? t1 : t2;
+			int ppn = clock.removeFirst();
+			TranslationEntry entry = entry(ppn);
+
+			if (isPinned(ppn)) {
+				clock.addLast(ppn);
+				if (useT1)
+					pinned1++;
+				else
+					pinned2++;
+				continue;
+			}
+
+			pinned1 = pinned2 = 0;
+
+			if (entry.used) {
+				// used again: give it another revolution, in T2
+				entry.used = false;
+				add(t2, ppn, 2);
+			}
+			else {
+				list[ppn] = 0;
+				remember(useT1 ? b1 : b2, key(ppn));
+				return ppn;
+			}
+		}
+	}
+
+	private void add(LinkedList<Integer> clock, int ppn, int which) {
+		clock.addLast(ppn);
+		list[ppn] = which;
+	}
+
+	private void remember(LinkedHashSet<Long> history, Long key) {
+		history.remove(key);
+		history.add(key);
+	}
+
+	private static void removeOldest(LinkedHashSet<Long> history) {
+		Iterator<Long> i = history.iterator();
+		i.next();
+		i.remove();
+	}
+
+	/**
+	 * Return a key naming the virtual page held by physical page <i>ppn</i>,
+	 * which stays valid after the page is evicted.
+	 */
+	private static Long key(int ppn) {
+		return ((long) VMKernel.coreOwner[ppn].current_process_id << 32)
+				| (VMKernel.coreVpn[ppn] & 0xFFFFFFFFL);
+	}
+
+	/** The target size of T1. */
+	private int p = 0;
+
+	/** Which clock each physical page is in: 0 for neither, 1 or 2. */
+	private int[] list;
+
+	private LinkedList<Integer> t1 = new LinkedList<Integer>();
+
+	private LinkedList<Integer> t2 = new LinkedList<Integer>();
+
+	/** The histories, oldest first. */
+	private LinkedHashSet<Long> b1 = new LinkedHashSet<Long>();
+
+	private LinkedHashSet<Long> b2 = new LinkedHashSet<Long>();
+}
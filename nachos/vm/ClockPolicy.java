@@ -0,0 +1,47 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * The clock algorithm. A hand sweeps the physical pages in order, clearing
+ * used bits, and evicts the first unpinned page whose used bit is already
+ * clear. When a page cleaner is running, the hand also passes over dirty
+ * pages, and evicts the first dirty one it found only if two sweeps turn up
+ * no clean page.
+ */
+public class ClockPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new clock policy.
+	 */
+	public ClockPolicy() {
+	}
+
+	public int chooseVictim() {
+		boolean skipDirty = preferClean();
+		int dirtyVictim = -1;
+
+		for (int i = 0; ; i++) {
+			// every unpinned page is unused after two sweeps
+			if (skipDirty && i == 2 * numPhysPages && dirtyVictim != -1)
+				return dirtyVictim;
+
+			int victim = hand;
+			TranslationEntry entry = entry(victim);
+			hand = (hand + 1) % numPhysPages;
+
+			if (entry == null)
+				continue;
+
+			if (!entry.used && !isPinned(victim)) {
+				if (!skipDirty || !entry.dirty)
+					return victim;
+				if (dirtyVictim == -1)
+					dirtyVictim = victim;
+			}
+			else if (entry.used)
+				entry.used = false;
+		}
+	}
+
+	private int hand = 0;
+}
@@ -0,0 +1,50 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * A file mapped into the address space of a process by <tt>mmap()</tt>. Page
+ * <i>i</i> of the map holds bytes <tt>i*pageSize</tt> onwards of the file.
+ */
+public class MemoryMap {
+	/**
+	 * Allocate a new memory map.
+	 *
+	 * @param fd the file descriptor the file is open as.
+	 * @param file the file.
+	 * @param firstVpn the first virtual page of the map.
+	 * @param length the length of the file, in bytes.
+	 */
+	public MemoryMap(int fd, OpenFile file, int firstVpn, int length) {
+		this.fd = fd;
+		this.file = file;
+		this.firstVpn = firstVpn;
+		this.length = length;
+		numPages = (length + Processor.pageSize - 1) / Processor.pageSize;
+	}
+
+	/**
+	 * Test whether virtual page <i>vpn</i> is part of this map.
+	 */
+	public boolean contains(int vpn) {
+		return vpn >= firstVpn && vpn < firstVpn + numPages;
+	}
+
+	/** The file descriptor the file is open as. */
+	public int fd;
+
+	/** The mapped file. */
+	public OpenFile file;
+
+	/** The first virtual page of the map. */
+	public int firstVpn;
+
+	/** The number of pages in the map. */
+	public int numPages;
+
+	/**
+	 * The length of the file when it was mapped. Nothing past it is written
+	 * back.
+	 */
+	public int length;
+}
@@ -0,0 +1,95 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * Chooses which physical page to evict when a page fault finds no free page.
+ * The kernel's policy is named by the <tt>VMKernel.replacementPolicy</tt> key
+ * in <tt>nachos.conf</tt>.
+ *
+ * <p>
+ * The kernel tells the policy about every page it maps and frees, so that a
+ * policy can keep its own lists. A policy reads the used and dirty bits the
+ * processor keeps in <tt>VMKernel.coreEntry</tt>, and must never choose a
+ * page with a non-zero <tt>VMKernel.pinCount</tt>.
+ */
+public abstract class ReplacementPolicy {
+	/**
+	 * Allocate a new replacement policy.
+	 */
+	public ReplacementPolicy() {
+	}
+
+	/**
+	 * Initialize this policy for a machine with the specified number of
+	 * physical pages, all of them free.
+	 *
+	 * @param numPhysPages the number of physical pages.
+	 */
+	public void initialize(int numPhysPages) {
+		this.numPhysPages = numPhysPages;
+	}
+
+	/**
+	 * Called after physical page <i>ppn</i> is mapped to a virtual page. The
+	 * owner and virtual page number are already in the core map.
+	 *
+	 * @param ppn the physical page that was mapped.
+	 */
+	public void pageIn(int ppn) {
+	}
+
+	/**
+	 * Called after physical page <i>ppn</i> is freed because its owner exited.
+	 *
+	 * @param ppn the physical page that was freed.
+	 */
+	public void pageFreed(int ppn) {
+	}
+
+	/**
+	 * Choose a page to evict. Called with <tt>VMKernel.pinLock</tt> held, when
+	 * there is no free page and at least one page is unpinned. A pinned page
+	 * may be being filled, and have no entry yet. The caller evicts the page
+	 * and then maps it again, so the policy sees a <tt>pageIn()</tt> for it
+	 * next.
+	 *
+	 * @return the physical page to evict.
+	 */
+	public abstract int chooseVictim();
+
+	/**
+	 * Return the name printed in the statistics when Nachos halts.
+	 *
+	 * @return the name of this policy.
+	 */
+	public String getName() {
+		return getClass().getSimpleName();
+	}
+
+	/**
+	 * Test whether physical page <i>ppn</i> may be evicted.
+	 */
+	protected static boolean isPinned(int ppn) {
+		return VMKernel.pinCount[ppn] != 0;
+	}
+
+	/**
+	 * Test whether a page cleaner is writing dirty pages back in the
+	 * background. If so, a policy should evict a clean page when it can, and
+	 * leave dirty ones for the cleaner.
+	 */
+	protected static boolean preferClean() {
+		return VMKernel.hasPageCleaner();
+	}
+
+	/**
+	 * Return the page table entry mapped to physical page <i>ppn</i>.
+	 */
+	protected static TranslationEntry entry(int ppn) {
+		return VMKernel.coreEntry[ppn];
+	}
+
+	/** The number of physical pages. */
+	protected int numPhysPages;
+}
@@ -0,0 +1,52 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * The enhanced second-chance algorithm. Pages are classed by their used and
+ * dirty bits, and the hand looks for a page in the best class first, so a
+ * clean page is evicted in preference to one that has to be written to swap:
+ *
+ * <ol>
+ * <li>Sweep once for a page that is neither used nor dirty, changing
+ * nothing.
+ * <li>Sweep once for a page that is dirty but not used, clearing the used
+ * bit of every page passed over.
+ * <li>Repeat the two sweeps. Every unpinned page is now unused, so one of them
+ * finds a victim.
+ * </ol>
+ */
+public class SecondChancePolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new enhanced second-chance policy.
+	 */
+	public SecondChancePolicy() {
+	}
+
+	public int chooseVictim() {
+		for (int pass = 0; pass < 4; pass++) {
+			boolean wantDirty = (pass % 2 == 1);
+
+			for (int i = 0; i < numPhysPages; i++) {
+				int victim = (hand + i) % numPhysPages;
+				TranslationEntry entry = entry(victim);
+				if (entry == null)
+					continue;
+
+				if (!entry.used && entry.dirty == wantDirty
+						&& !isPinned(victim)) {
+					hand = (victim + 1) % numPhysPages;
+					return victim;
+				}
+
+				if (wantDirty)
+					entry.used = false;
+			}
+		}
+
+		Lib.assertNotReached("no unpinned page");
+		return -1;
+	}
+
+	private int hand = 0;
+}
@@ -0,0 +1,57 @@
+package nachos.vm;
+
+import java.util.*;
+
+/**
+ * A physical page mapped by several processes at the same virtual page.
+ * Either a read-only page of an executable, shared by every process running
+ * that executable which has faulted it in, or a copy-on-write page shared by
+ * a process and the children it forked. <tt>VMKernel.sharedPages</tt> finds
+ * read-only pages by executable, section and page, and
+ * <tt>VMKernel.sharedFrame</tt> finds any shared page by physical page.
+ * Protected by <tt>VMKernel.pinLock</tt>.
+ */
+public class SharedPage {
+	/**
+	 * Allocate a new shared page, which is being loaded.
+	 *
+	 * @param key the key of this page in <tt>VMKernel.sharedPages</tt>, or
+	 * <tt>null</tt> for a copy-on-write page.
+	 */
+	public SharedPage(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Return the key for a page of an executable.
+	 *
+	 * @param executable the name of the executable file.
+	 * @param section the number of the COFF section.
+	 * @param page the number of the page within the section.
+	 * @return the key.
+	 */
+	public static String key(String executable, int section, int page) {
+		return executable + ":" + section + ":" + page;
+	}
+
+	/** The key of this page in <tt>VMKernel.sharedPages</tt>, or null. */
+	public String key;
+
+	/**
+	 * True if this is a copy-on-write page. It is read-only in every page
+	 * table mapping it, and a process writing it gets its own copy.
+	 */
+	public boolean copyOnWrite = false;
+
+	/** The physical page holding this page, or -1 until one is found. */
+	public int ppn = -1;
+
+	/**
+	 * True while the first process to fault this page in is reading it. Other
+	 * processes wait on <tt>VMKernel.transitCV</tt> until it is false.
+	 */
+	public boolean loading = true;
+
+	/** The processes mapping this page. */
+	public LinkedList<VMProcess> sharers = new LinkedList<VMProcess>();
+}
@@ -0,0 +1,57 @@
+package nachos.vm;
+
+import nachos.machine.*;
+import java.util.*;
+
+/**
+ * Allocates the swap file in extents of contiguous swap pages, using a bitmap
+ * with one bit per swap page. Each process reserves one extent, with a swap
+ * page for every virtual page, so that neighbouring virtual pages are also
+ * neighbours in the swap file and can be moved in a single file operation.
+ */
+public class SwapAllocator {
+	/**
+	 * Allocate a new swap allocator, with every swap page free.
+	 */
+	public SwapAllocator() {
+	}
+
+	/**
+	 * Reserve <i>numPages</i> contiguous swap pages. Uses the first free
+	 * extent that is large enough, or extends the swap file if there is none.
+	 *
+	 * @param numPages the size of the extent.
+	 * @return the first swap page of the extent.
+	 */
+	public int allocate(int numPages) {
+		Lib.assertTrue(numPages > 0);
+
+		int start = used.nextClearBit(0);
+		while (true) {
+			int end = used.nextSetBit(start);
+			if (end == -1 || end - start >= numPages)
+				break;
+
+			start = used.nextClearBit(end);
+		}
+
+		used.set(start, start + numPages);
+		return start;
+	}
+
+	/**
+	 * Release an extent returned by <tt>allocate()</tt>.
+	 *
+	 * @param start the first swap page of the extent.
+	 * @param numPages the size of the extent.
+	 */
+	public void free(int start, int numPages) {
+		Lib.assertTrue(start >= 0 && numPages > 0);
+		Lib.assertTrue(used.nextClearBit(start) >= start + numPages);
+
+		used.clear(start, start + numPages);
+	}
+
+	/** Which swap pages belong to an extent. */
+	private BitSet used = new BitSet();
+}
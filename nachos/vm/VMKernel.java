@@ -24,26 +24,66 @@ public class VMKernel extends UserKernel {
 	public void initialize(String[] args) {
 		int numPhysPages = Machine.processor().getNumPhysPages();
 		super.initialize(args);
-		vmLock = new Lock();
-		//TODO: initialize the IPT
-		victimPage = 0;
-		IPT = new HashMap <Integer, VMProcess>();
+		//the core map (inverted page table), one slot per physical page
+		coreOwner = new VMProcess[numPhysPages];
+		coreVpn = new int[numPhysPages];
+		coreEntry = new TranslationEntry[numPhysPages];
+		pinCount = new int[numPhysPages];
+		numUnpinned = numPhysPages;
 		for (int ppn = 0; ppn < numPhysPages; ppn++){
-			IPT.put(ppn, null);
+			coreVpn[ppn] = -1;
 		}
-		IPV = new HashMap <Integer, Integer>();
-		for (int ppn = 0; ppn < numPhysPages; ppn++){
-			IPV.put(ppn, -1);
+		//swap goes to the last VMKernel.swapSectors sectors of the disk if asked,
+		//where the disk scheduler can order it with the other disk traffic
+		int swapSectors = Config.getInteger("VMKernel.swapSectors", 0);
+		if (swapSectors > 0 && ThreadedKernel.disk != null){
+			int numSectors = ThreadedKernel.disk.getDisk().getNumSectors();
+			Lib.assertTrue(swapSectors <= numSectors);
+			swapfile = ThreadedKernel.disk.openPartition("swapfile",
+					numSectors - swapSectors, swapSectors);
 		}
-		pinTable = new Boolean[numPhysPages];
-		for (int i = 0; i < numPhysPages; i++){
-			pinTable[i] = false;
+		else {
+			//pages are cached in memory already, so swap bypasses the buffer cache
+			FileSystem swapFileSystem = ThreadedKernel.fileSystem;
+			if (swapFileSystem instanceof CachedFileSystem){
+				swapFileSystem = ((CachedFileSystem) swapFileSystem).getFileSystem();
+			}
+			swapfile = swapFileSystem.open("swapfile",true);//open the swapfile
 		}
-		swapfile = ThreadedKernel.fileSystem.open("swapfile",true);//open the swapfile
-  		freeswappagelist = new LinkedList<Integer>();//store the free page number list
-		swappagenumber = 0;
+		swapAllocator = new SwapAllocator();
+		swapCluster = Config.getInteger("VMKernel.swapCluster", 1);
+		Lib.assertTrue(swapCluster > 0);
 		pinLock = new Lock();
 		pinCV = new Condition(pinLock);
+		transitCV = new Condition(pinLock);
+		transferCV = new Condition(pinLock);
+		freeTransferPages = Config.getInteger("VMKernel.transferPages",
+				Math.max(1, numPhysPages/4));
+		Lib.assertTrue(freeTransferPages > 0 && freeTransferPages < numPhysPages);
+		sharePages = Config.getBoolean("VMKernel.sharePages", false);
+		sharedPages = new HashMap<String,SharedPage>();
+		sharedFrame = new SharedPage[numPhysPages];
+		prepaging = Config.getBoolean("VMKernel.prepaging", false);
+		workingSets = new HashMap<String,BitSet>();
+
+		replacementPolicy = (ReplacementPolicy) Lib.constructObject(Config
+				.getString("VMKernel.replacementPolicy", "nachos.vm.ClockPolicy"));
+		replacementPolicy.initialize(numPhysPages);
+		Machine.setReplacementPolicy(replacementPolicy.getName());
+
+		if (Config.getBoolean("VMKernel.pageCleaner", false)){
+			cleanerBatch = Config.getInteger("VMKernel.cleanerBatch", 4);
+			cleanerWatermark = Config.getInteger("VMKernel.cleanerWatermark",
+					Math.max(1, numPhysPages/8));
+			cleanerCV = new Condition(pinLock);
+			KThread cleaner = new KThread(new Runnable() {
+				public void run() {
+					cleanPages();
+				}
+			});
+			cleaner.setName("page cleaner");
+			cleaner.fork();
+		}
 	}
 
 	/**
@@ -64,7 +104,9 @@ public class VMKernel extends UserKernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
-		ThreadedKernel.fileSystem.remove("swapfile");
+		if (swapfile.getFileSystem() != null){//a swap partition is not a file
+			ThreadedKernel.fileSystem.remove("swapfile");
+		}
 		swapfile.close();
 		super.terminate();
 		
@@ -75,25 +117,224 @@ public class VMKernel extends UserKernel {
 
 	private static final char dbgVM = 'v';
 
-	public static Lock vmLock;
+	/**
+	 * Record that physical page <i>ppn</i> now holds virtual page <i>vpn</i>
+	 * of <i>owner</i>. Called with pinLock held.
+	 */
+	public static void mapPage(int ppn, VMProcess owner, int vpn, TranslationEntry entry){
+		coreOwner[ppn] = owner;
+		coreVpn[ppn] = vpn;
+		coreEntry[ppn] = entry;
+		replacementPolicy.pageIn(ppn);
+		Machine.recordPaging(1, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Record that physical page <i>ppn</i>, which holds a shared page, is now
+	 * owned by <i>owner</i>, because its old owner exited. Called with
+	 * pinLock held.
+	 */
+	public static void rehomePage(int ppn, VMProcess owner, TranslationEntry entry){
+		coreOwner[ppn] = owner;
+		coreEntry[ppn] = entry;
+	}
+
+	/**
+	 * Add the pages a process running <i>executable</i> faulted in to the
+	 * executable's working set profile, which later processes running it
+	 * prepage.
+	 */
+	public static void recordWorkingSet(String executable, BitSet pages){
+		BitSet profile = workingSets.get(executable);
+		if (profile == null){
+			workingSets.put(executable, (BitSet) pages.clone());
+		}
+		else{
+			profile.or(pages);
+		}
+	}
+
+	/**
+	 * Record that physical page <i>ppn</i> is free. Called with pinLock held.
+	 */
+	public static void unmapPage(int ppn){
+		coreOwner[ppn] = null;
+		coreVpn[ppn] = -1;
+		coreEntry[ppn] = null;
+		replacementPolicy.pageFreed(ppn);
+	}
+
+	//The core map (inverted page table), indexed by ppn. In the VMKernel initialize it.
+	//The process owning each physical page, or null if it is free.
+	public static VMProcess[] coreOwner;
+
+	//The virtual page each physical page holds, or -1.
+	public static int[] coreVpn;
+
+	//The owner's page table entry for each physical page. Eviction reads the
+	//used (reference) and dirty bits the processor keeps in it.
+	public static TranslationEntry[] coreEntry;
+
+	//Whether processes running the same executable share its read-only
+	//pages. A shared page's owner in the core map is just one of its sharers.
+	public static boolean sharePages;
+
+	//The shared read-only pages, by SharedPage.key(). Protected by pinLock.
+	public static HashMap<String,SharedPage> sharedPages;
+
+	//The shared page held by each physical page, or null. Protected by pinLock.
+	public static SharedPage[] sharedFrame;
+
+	//Whether processes load the pages they are likely to touch first before
+	//they start, instead of faulting them in.
+	public static boolean prepaging;
+
+	//The pages earlier processes running each executable faulted in.
+	public static HashMap<String,BitSet> workingSets;
+
+	/**
+	 * Pin physical page <i>ppn</i>, so that it is not evicted until it is
+	 * unpinned. A page may be pinned more than once.
+	 */
+	public static void pinPage(int ppn){
+		pinLock.acquire();
+		pinPageLocked(ppn);
+		pinLock.release();
+	}
+
+	/**
+	 * Undo one <tt>pinPage()</tt> of physical page <i>ppn</i>. When the page
+	 * becomes evictable, wake one thread waiting in page replacement, since
+	 * only one of them can take the page.
+	 */
+	public static void unpinPage(int ppn){
+		pinLock.acquire();
+		unpinPageLocked(ppn);
+		pinLock.release();
+	}
+
+	/**
+	 * <tt>pinPage()</tt>, called with pinLock held.
+	 */
+	static void pinPageLocked(int ppn){
+		if (pinCount[ppn]++ == 0){
+			numUnpinned--;
+		}
+	}
+
+	/**
+	 * <tt>unpinPage()</tt>, called with pinLock held.
+	 */
+	static void unpinPageLocked(int ppn){
+		Lib.assertTrue(pinCount[ppn] > 0);
+		if (--pinCount[ppn] == 0){
+			numUnpinned++;
+			pinCV.wake();
+		}
+	}
+
+	/**
+	 * Test whether there is a page cleaner.
+	 */
+	public static boolean hasPageCleaner(){
+		return cleanerCV != null;
+	}
+
+	/**
+	 * Tell the page cleaner that a page is being allocated, so it can start
+	 * writing dirty pages back once no more than cleanerWatermark pages are
+	 * free. Called with pinLock held.
+	 *
+	 * @param numFree the number of free pages before the allocation.
+	 */
+	public static void wakePageCleaner(int numFree){
+		if (cleanerCV != null && numFree <= cleanerWatermark){
+			cleanerWanted = true;
+			cleanerCV.wake();
+		}
+	}
+
+	/**
+	 * The page cleaner. Each time a page is allocated while free pages are
+	 * short, it sweeps the core map for up to cleanerBatch dirty pages that
+	 * have not been used since the replacement policy last cleared their used
+	 * bits, and writes them back, to swap with their dirty neighbours or to
+	 * their mapped files. Eviction can then take a clean page without waiting
+	 * on a write.
+	 */
+	private static void cleanPages(){
+		int numPhysPages = Machine.processor().getNumPhysPages();
+		pinLock.acquire();
+		while (true){
+			while (!cleanerWanted){
+				cleanerCV.sleep();
+			}
+			cleanerWanted = false;
+
+			int cleaned = 0;
+			for (int i = 0; i < numPhysPages && cleaned < cleanerBatch; i++){
+				int ppn = cleanerHand;
+				cleanerHand = (cleanerHand + 1) % numPhysPages;
+				TranslationEntry entry = coreEntry[ppn];
+				if (entry == null || !entry.valid || !entry.dirty || entry.used
+						|| pinCount[ppn] != 0 || coreOwner[ppn].isSwapWriting(coreVpn[ppn])){
+					continue;
+				}
 
-	//The Inverted page table here. In the VMKernel initialize it.
-	public static HashMap <Integer,VMProcess> IPT;
+				cleaned += coreOwner[ppn].writeBack(coreVpn[ppn]);
+			}
+		}
+	}
+
+	//How many times each physical page is pinned. Protected by pinLock.
+	public static int[] pinCount;
 
-	public static HashMap <Integer, Integer> IPV;
+	//The number of physical pages with a pin count of zero. Protected by pinLock.
+	public static int numUnpinned;
 
-	public static int victimPage;
+	//Chooses the page to evict when there is no free page.
+	public static ReplacementPolicy replacementPolicy;
 
 	public static OpenFile swapfile;
 
-	public static LinkedList<Integer> freeswappagelist;
-	
-	public static int swappagenumber;
+	//Hands out an extent of the swap file to each process that swaps.
+	public static SwapAllocator swapAllocator;
+
+	//The most pages moved to or from swap in one file operation.
+	public static int swapCluster;
 
 	public static Condition pinCV;
 
-	public static Lock pinLock;
+	//Signalled when a page stops being in transit: an eviction finishes, or a
+	//write to swap completes. Uses pinLock.
+	public static Condition transitCV;
+
+	//Signalled when transfer pages are given back. Uses pinLock.
+	public static Condition transferCV;
+
+	//How many more pages read/writeVirtualMemory and the read and write
+	//syscalls may pin at once. A transfer reserves its batch before pinning
+	//any of it, so it never waits for transfer pages while holding some. It
+	//can wait in a page fault for a free frame while earlier pages of its
+	//batch stay pinned, but transfers never pin all of memory, so a frame is
+	//always left to evict. Protected by pinLock.
+	public static int freeTransferPages;
+
+	//The page cleaner sleeps on this until wakePageCleaner(), or is null if
+	//there is no page cleaner.
+	private static Condition cleanerCV = null;
+
+	private static boolean cleanerWanted = false;
 
-	public static Boolean[] pinTable; 
+	//The most dirty pages the page cleaner writes each time it is woken.
+	private static int cleanerBatch;
+
+	//The page cleaner is woken when a page is allocated with no more than
+	//this many pages free.
+	private static int cleanerWatermark;
+
+	private static int cleanerHand = 0;
+
+	public static Lock pinLock;
 	
 }
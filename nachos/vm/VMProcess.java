@@ -23,6 +23,7 @@ public class VMProcess extends UserProcess {
 	 */
 	public void saveState() {
 		super.saveState();
+		flushTLB();
 	}
 
 	/**
@@ -30,7 +31,8 @@ public class VMProcess extends UserProcess {
 	 * <tt>UThread.restoreState()</tt>.
 	 */
 	public void restoreState() {
-		super.restoreState();
+		if (!Machine.processor().hasTLB())
+			super.restoreState();
 	}
 
 	/**
@@ -40,34 +42,382 @@ public class VMProcess extends UserProcess {
 	 * @return <tt>true</tt> if successful.
 	 */
 	protected boolean loadSections() {
-		//VMKernel.vmLock.acquire();
-		System.out.println("number of pages is " + numPages);
-		System.out.println("freelist length is " + freeList.size());
-		// if (numPages > freeList.size()) {
-		// 	coff.close();
-		// 	Lib.debug(dbgProcess, "\tinsufficient physical memory");
-		// 	UserKernel.lock.release();
-		// 	System.out.println("False");
-		// 	return false;
-		// }
-
 		pageTable = new TranslationEntry[numPages];
 		for (int vpn = 0; vpn < numPages; vpn++){
 			pageTable[vpn] = new TranslationEntry(vpn, -1, false, false, false, false);
 		}
-		//VMKernel.vmLock.release();
+		swapWrites = new int[numPages];
+
+		//index the COFF sections by vpn, so a fault finds its page directly
+		pageSection = new int[numPages];
+		Arrays.fill(pageSection, -1);
+		for (int s = 0; s < coff.getNumSections(); s++){
+			CoffSection section = coff.getSection(s);
+			for (int i = 0; i < section.getLength(); i++){
+				pageSection[section.getFirstVPN() + i] = s;
+			}
+		}
+		faulted = new BitSet(numPages);
+		if (VMKernel.prepaging){
+			prepage();
+		}
 		return true;
 	}
 
+	/**
+	 * Load the pages this process is likely to touch first, before it
+	 * starts: the page holding the entry point, the top of the stack, the
+	 * argument page, and the pages earlier runs of the same executable
+	 * faulted in. Only free physical pages are used. Each run of consecutive
+	 * pages of a section is read with one read of the executable, and the
+	 * pages are mapped unused, so they are evicted first if they are not
+	 * touched.
+	 */
+	private void prepage(){
+		BitSet pages = new BitSet(numPages);
+		pages.set(Processor.pageFromAddress(coff.getEntryPoint()));
+		pages.set(numPages - 2);
+		pages.set(numPages - 1);
+		BitSet profile = VMKernel.workingSets.get(executableName);
+		if (profile != null){
+			pages.or(profile);
+		}
+
+		//choose the pages to load and give them physical pages; read-only
+		//pages another process has loaded are simply shared
+		int[] ppns = new int[numPages];
+		Arrays.fill(ppns, -1);
+		SharedPage[] shared = new SharedPage[numPages];
+		VMKernel.pinLock.acquire();
+		for (int vpn = pages.nextSetBit(0); vpn >= 0 && vpn < numPages
+				&& !freeList.isEmpty(); vpn = pages.nextSetBit(vpn + 1)){
+			TranslationEntry entry = pageTable[vpn];
+			if (VMKernel.sharePages && isReadOnlyPage(vpn)){
+				CoffSection section = coff.getSection(pageSection[vpn]);
+				String key = SharedPage.key(executableName, pageSection[vpn],
+						vpn - section.getFirstVPN());
+				shared[vpn] = VMKernel.sharedPages.get(key);
+				if (shared[vpn] != null){
+					if (!shared[vpn].loading){
+						shared[vpn].sharers.add(this);
+						entry.readOnly = true;
+						entry.ppn = shared[vpn].ppn;
+						entry.valid = true;
+					}
+					shared[vpn] = null;
+					continue;
+				}
+				shared[vpn] = new SharedPage(key);
+				VMKernel.sharedPages.put(key, shared[vpn]);
+			}
+			VMKernel.wakePageCleaner(freeList.size());
+			ppns[vpn] = freeList.remove();
+			VMKernel.pinPageLocked(ppns[vpn]);
+			if (shared[vpn] != null){
+				shared[vpn].ppn = ppns[vpn];
+				shared[vpn].sharers.add(this);
+				VMKernel.sharedFrame[ppns[vpn]] = shared[vpn];
+			}
+		}
+		VMKernel.pinLock.release();
+
+		byte[] memory = Machine.processor().getMemory();
+		int vpn = 0;
+		while (vpn < numPages){
+			if (ppns[vpn] == -1){
+				vpn++;
+				continue;
+			}
+			int s = pageSection[vpn];
+			int last = vpn;
+			if (s == -1){
+				//stack or arguments
+				Arrays.fill(memory, ppns[vpn]*pageSize, (ppns[vpn] + 1)*pageSize, (byte) 0);
+			}
+			else{
+				while (last + 1 < numPages && pageSection[last + 1] == s && ppns[last + 1] != -1){
+					last++;
+				}
+				CoffSection section = coff.getSection(s);
+				section.loadPages(vpn - section.getFirstVPN(),
+						Arrays.copyOfRange(ppns, vpn, last + 1));
+				Machine.recordPaging(0, last - vpn + 1, 0, 0, 0);
+			}
+			for (; vpn <= last; vpn++){
+				pageTable[vpn].readOnly = isReadOnlyPage(vpn);
+				pageTable[vpn].used = false;
+				finishPageIn(vpn, ppns[vpn]);
+				if (shared[vpn] != null){
+					VMKernel.pinLock.acquire();
+					shared[vpn].loading = false;
+					VMKernel.transitCV.wakeAll();
+					VMKernel.pinLock.release();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Release any resources allocated by <tt>loadSections()</tt>.
 	 */
 	protected void unloadSections() {
+		//write mapped files back before their pages are freed
+		while (!maps.isEmpty()){
+			unmap(maps.getFirst());
+		}
+		if (VMKernel.prepaging){
+			VMKernel.recordWorkingSet(executableName, faulted);
+		}
+		VMKernel.pinLock.acquire();
+		//other processes may still be evicting our pages, or writing them to
+		//swap; wait until none are in transit before giving anything away
+		waitForTransit();
 		for (int i = 0; i < numPages; i++){
-			if (pageTable[i].ppn != -1){
+			if (pageTable[i].valid && !unsharePage(i)){
+				VMKernel.unmapPage(pageTable[i].ppn);
 				freeList.add(pageTable[i].ppn);
 			}
+			pageTable[i].spn = -1;
+		}
+		if (swapBase != -1){
+			VMKernel.swapAllocator.free(swapBase, numPages);
+			swapBase = -1;
+		}
+		VMKernel.pinCV.wakeAll();
+		VMKernel.pinLock.release();
+	}
+
+	/**
+	 * Wait until none of this process's pages is in transit. Called with
+	 * pinLock held.
+	 */
+	private void waitForTransit() {
+		boolean busy = true;
+		while (busy){
+			busy = false;
+			for (int i = 0; i < numPages && !busy; i++){
+				busy = inTransit(i);
+			}
+			if (busy){
+				VMKernel.transitCV.sleep();
+			}
+		}
+	}
+
+	/**
+	 * Give this process, a child being forked, a copy-on-write copy of the
+	 * address space of <i>parentProcess</i>. Resident pages are shared, and
+	 * read-only in both page tables until one of the processes writes them.
+	 * Pages in swap are copied to this process's swap extent, and pages
+	 * never loaded are demand-paged as usual.
+	 *
+	 * @return <tt>true</tt> if successful.
+	 */
+	protected boolean copyAddressSpace(UserProcess parentProcess) {
+		VMProcess parent = (VMProcess) parentProcess;
+		pageTable = new TranslationEntry[numPages];
+		swapWrites = new int[numPages];
+		pageSection = parent.pageSection;
+		faulted = new BitSet(numPages);
+
+		VMKernel.pinLock.acquire();
+		parent.waitForTransit();
+		//the parent is running, so its TLB holds its latest used and dirty bits
+		parent.flushTLB();
+		LinkedList<Integer> swapped = new LinkedList<Integer>();
+		for (int vpn = 0; vpn < numPages; vpn++){
+			TranslationEntry entry = parent.pageTable[vpn];
+			pageTable[vpn] = new TranslationEntry(vpn, -1, false, false, false, false);
+			if (entry.valid){
+				SharedPage shared = VMKernel.sharedFrame[entry.ppn];
+				if (shared == null){
+					shared = new SharedPage(null);
+					shared.copyOnWrite = true;
+					shared.loading = false;
+					shared.ppn = entry.ppn;
+					shared.sharers.add(parent);
+					VMKernel.sharedFrame[entry.ppn] = shared;
+				}
+				shared.sharers.add(this);
+				entry.readOnly = true;
+				pageTable[vpn].ppn = entry.ppn;
+				pageTable[vpn].valid = true;
+				pageTable[vpn].readOnly = true;
+				pageTable[vpn].used = entry.used;
+				//we have no swap copy, so the page must be written if it is
+				//evicted, unless it is still as it was loaded
+				pageTable[vpn].dirty = entry.dirty || entry.spn != -1;
+			}
+			else if (entry.spn != -1){
+				swapped.add(vpn);
+			}
+		}
+		if (!swapped.isEmpty()){
+			swapBase = VMKernel.swapAllocator.allocate(numPages);
+		}
+		VMKernel.pinLock.release();
+
+		//the parent waits in fork() and we have not started, so nobody else
+		//can touch the pages that are only in swap
+		byte[] buffer = new byte[pageSize];
+		for (Iterator<Integer> i = swapped.iterator(); i.hasNext();){
+			int vpn = i.next();
+			VMKernel.swapfile.read(parent.pageTable[vpn].spn*pageSize, buffer, 0, pageSize);
+			VMKernel.swapfile.write((swapBase + vpn)*pageSize, buffer, 0, pageSize);
+			Machine.recordPaging(0, 0, 1, 1, 0);
+			pageTable[vpn].spn = swapBase + vpn;
 		}
+		return true;
+	}
+
+	/**
+	 * Handle a syscall exception. Adds <tt>mmap()</tt> to the syscalls
+	 * handled by <tt>UserProcess</tt>:
+	 *
+	 * <table>
+	 * <tr>
+	 * <td>syscall#</td>
+	 * <td>syscall prototype</td>
+	 * </tr>
+	 * <tr>
+	 * <td>10</td>
+	 * <td><tt>int  mmap(int fileDescriptor, char *address);</tt></td>
+	 * </tr>
+	 * </table>
+	 */
+	public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+		switch (syscall) {
+		case syscallMmap:
+			return handleMmap(a0, a1);
+		default:
+			return super.handleSyscall(syscall, a0, a1, a2, a3);
+		}
+	}
+
+	/**
+	 * Handle the mmap() system call. Map the file open as <i>fd</i> at
+	 * <i>address</i>, which must be page aligned, past the end of the
+	 * program, and not overlap another map. The pages are demand-paged from
+	 * the file.
+	 *
+	 * @return the length of the file, or -1 on error.
+	 */
+	private int handleMmap(int fd, int address){
+		OpenFile file = getOpenFile(fd);
+		if (file == null || isMapped(fd)){
+			return -1;
+		}
+		if (address < numPages*pageSize || Processor.offsetFromAddress(address) != 0){
+			return -1;
+		}
+		int length = file.length();
+		if (length < 0){
+			return -1;
+		}
+		MemoryMap map = new MemoryMap(fd, file, Processor.pageFromAddress(address), length);
+		int end = map.firstVpn + map.numPages;
+		if (end > maxAddressPages){
+			return -1;
+		}
+		for (int vpn = map.firstVpn; vpn < Math.min(end, pageTable.length); vpn++){
+			if (pageTable[vpn] != null){
+				return -1;
+			}
+		}
+
+		VMKernel.pinLock.acquire();
+		if (end > pageTable.length){
+			//the pages in between stay unmapped (null)
+			pageTable = Arrays.copyOf(pageTable, end);
+			swapWrites = Arrays.copyOf(swapWrites, end);
+			int oldLength = pageSection.length;
+			pageSection = Arrays.copyOf(pageSection, end);
+			Arrays.fill(pageSection, oldLength, end, -1);
+		}
+		for (int vpn = map.firstVpn; vpn < end; vpn++){
+			pageTable[vpn] = new TranslationEntry(vpn, -1, false, false, false, false);
+		}
+		maps.add(map);
+		VMKernel.pinLock.release();
+		restoreState();
+		return length;
+	}
+
+	/**
+	 * Test whether the file open as <i>fd</i> is mapped into memory.
+	 */
+	protected boolean isMapped(int fd){
+		return mapOfFile(fd) != null;
+	}
+
+	/**
+	 * Unmap the file open as <i>fd</i>, if it is mapped, because it is being
+	 * closed.
+	 */
+	protected void unmapFile(int fd){
+		MemoryMap map = mapOfFile(fd);
+		if (map != null){
+			unmap(map);
+		}
+	}
+
+	/**
+	 * Write the dirty pages of <i>map</i> back to its file, free its pages
+	 * and remove it from the address space.
+	 */
+	private void unmap(MemoryMap map){
+		//the TLB may hold dirty bits the page table has not seen
+		flushTLB();
+		VMKernel.pinLock.acquire();
+		for (int vpn = map.firstVpn; vpn < map.firstVpn + map.numPages; vpn++){
+			TranslationEntry entry = pageTable[vpn];
+			while (true){
+				while (inTransit(vpn)){
+					VMKernel.transitCV.sleep();
+				}
+				if (!entry.valid || !entry.dirty){
+					break;
+				}
+				writeMappedPage(vpn);
+			}
+			if (entry.valid){
+				VMKernel.unmapPage(entry.ppn);
+				freeList.add(entry.ppn);
+			}
+			pageTable[vpn] = null;
+		}
+		maps.remove(map);
+		VMKernel.pinCV.wakeAll();
+		VMKernel.pinLock.release();
+	}
+
+	/**
+	 * Return the map containing virtual page <i>vpn</i>, or null.
+	 */
+	private MemoryMap mapOf(int vpn){
+		if (vpn < numPages){
+			return null;
+		}
+		for (Iterator<MemoryMap> i = maps.iterator(); i.hasNext();){
+			MemoryMap map = i.next();
+			if (map.contains(vpn)){
+				return map;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the map of the file open as <i>fd</i>, or null.
+	 */
+	private MemoryMap mapOfFile(int fd){
+		for (Iterator<MemoryMap> i = maps.iterator(); i.hasNext();){
+			MemoryMap map = i.next();
+			if (map.fd == fd){
+				return map;
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -82,324 +432,706 @@ public class VMProcess extends UserProcess {
 
 		switch (cause) {
 		case 1:
-			//System.out.println("We enter the handle exception.");
 			int badVpn = Processor.pageFromAddress(processor.readRegister(Processor.regBadVAddr));
+			if (badVpn >= pageTable.length || pageTable[badVpn] == null){
+				//not part of the address space
+				super.handleException(cause);
+				break;
+			}
 			handlePageFault(badVpn);
 			break;
+		case Processor.exceptionTLBMiss:
+			handleTLBMiss(Processor.pageFromAddress(processor.readRegister(Processor.regBadVAddr)));
+			break;
+		case Processor.exceptionReadOnly:
+			if (!breakCopyOnWrite(Processor.pageFromAddress(processor.readRegister(Processor.regBadVAddr)))){
+				super.handleException(cause);
+			}
+			break;
 		default:
-			//System.out.println("The cause is: " + cause);
 			super.handleException(cause);
 			break;
 		}
 	}
 
+	/**
+	 * Load the translation for <i>vpn</i> into the TLB set that holds it,
+	 * paging it in first if necessary. Replaces an invalid entry in the set
+	 * if there is one, otherwise the set's entries in turn.
+	 */
+	private void handleTLBMiss(int vpn){
+		Processor processor = Machine.processor();
+		if (vpn < 0 || vpn >= pageTable.length || pageTable[vpn] == null){
+			super.handleException(Processor.exceptionTLBMiss);
+			return;
+		}
+		if (!pageTable[vpn].valid){
+			handlePageFault(vpn);
+		}
+
+		int ways = processor.getTLBAssociativity();
+		int set = processor.getTLBSet(vpn);
+		int victim = -1;
+		for (int i = set * ways; i < (set + 1) * ways; i++){
+			if (!processor.readTLBEntry(i).valid){
+				victim = i;
+				break;
+			}
+		}
+		if (victim == -1){
+			if (tlbVictim == null){
+				tlbVictim = new int[processor.getTLBSize() / ways];
+			}
+			victim = set * ways + tlbVictim[set];
+			tlbVictim[set] = (tlbVictim[set] + 1) % ways;
+			syncTLBEntry(victim);
+		}
+		processor.writeTLBEntry(victim, pageTable[vpn]);
+	}
+
+	/**
+	 * Copy the used and dirty bits of TLB entry <i>i</i> back into the page
+	 * table.
+	 */
+	private void syncTLBEntry(int i){
+		TranslationEntry entry = Machine.processor().readTLBEntry(i);
+		if (entry.valid && entry.vpn >= 0 && entry.vpn < pageTable.length
+				&& pageTable[entry.vpn] != null
+				&& pageTable[entry.vpn].ppn == entry.ppn){
+			pageTable[entry.vpn].used |= entry.used;
+			pageTable[entry.vpn].dirty |= entry.dirty;
+		}
+	}
+
+	/**
+	 * Write back and invalidate every TLB entry. Called on context switches
+	 * and before choosing a victim page, so the page table is up to date and
+	 * no stale translation survives an eviction.
+	 */
+	private void flushTLB(){
+		Processor processor = Machine.processor();
+		if (!processor.hasTLB()){
+			return;
+		}
+		for (int i = 0; i < processor.getTLBSize(); i++){
+			syncTLBEntry(i);
+			processor.writeTLBEntry(i, new TranslationEntry());
+		}
+	}
+
+	/**
+	 * Page in virtual page <i>badVpn</i>. A process handles one fault at a
+	 * time (pageLock), but faults of different processes overlap: no lock is
+	 * held while the page is read, and the frame being filled stays pinned so
+	 * that no one else can take it. If another process is still evicting the
+	 * page, or its swap copy is still being written, wait for that first.
+	 */
 	public void handlePageFault(int badVpn){
-		VMKernel.vmLock.acquire();
+		pageLock.acquire();
 		Processor processor = Machine.processor();
-		//System.out.println("badvpn" + badVpn);
-		/* loop through all sections to check if it is a coff page */
-		int ppn = 0;
-		// System.out.println("page table ppn is: " + pageTable[badVpn].ppn);
-		// System.out.println("page table spn is: " + pageTable[badVpn].spn);
-		// System.out.println("page table vaild is: " + pageTable[badVpn].valid);
-		
-		if (pageTable[badVpn].spn != -1){
-				//read from swapfile.
-				//System.out.println("any possible to read from swapfile.");
-				int spn = pageTable[badVpn].spn;
-				if (!freeList.isEmpty()){
-					ppn = freeList.remove();
-				} else{
-					ppn = PageReplacement();
-				}
+		TranslationEntry entry = pageTable[badVpn];
+		if (badVpn < numPages){
+			faulted.set(badVpn);
+		}
+
+		//a read-only COFF page that other processes running this executable
+		//may already have loaded
+		SharedPage shared = null;
+		String key = null;
+		if (VMKernel.sharePages && pageSection[badVpn] != -1
+				&& coff.getSection(pageSection[badVpn]).isReadOnly()){
+			CoffSection section = coff.getSection(pageSection[badVpn]);
+			key = SharedPage.key(executableName, pageSection[badVpn],
+					badVpn - section.getFirstVPN());
+		}
 
-				VMKernel.swapfile.read(spn*pageSize, processor.getMemory(), ppn*pageSize, pageSize);
-				pageTable[badVpn].valid = true;
-				pageTable[badVpn].ppn = ppn;
-				VMKernel.IPT.replace(ppn, this);
-				VMKernel.IPV.replace(ppn, badVpn);
-				//check this part later. change dirty to false.
-				VMKernel.freeswappagelist.add(spn);
-				pageTable[badVpn].printString();
-				pageTable[badVpn].spn = -1;
-				
-				VMKernel.vmLock.release();
+		VMKernel.pinLock.acquire();
+		while (true){
+			while (inTransit(badVpn)){
+				VMKernel.transitCV.sleep();
+			}
+			if (entry.valid){
+				VMKernel.pinLock.release();
+				pageLock.release();
 				return;
 			}
-		if (badVpn >= numPages - stackPages - 1 && badVpn <= numPages - 1){
-			//check it is in swap file
-			//that's the stack/argument pages.
-			if (!freeList.isEmpty()){
-			ppn = freeList.remove();
-			} else{
-			ppn = PageReplacement();
-			}	
-			VMKernel.IPT.replace(ppn, this);
-			VMKernel.IPV.replace(ppn, badVpn);
-			byte[] data = new byte[Processor.pageSize];
-			//pageTable[badVpn] = new TranslationEntry(badVpn, ppn, true, false, false, false);
-			pageTable[badVpn].valid = true;
-			pageTable[badVpn].ppn = ppn;
-			System.arraycopy(data,0,processor.getMemory(),processor.makeAddress(ppn,0),pageSize);
-			//pageTable[badVpn].printString();
+			if (key == null){
+				break;
 			}
-		else {
-			//System.out.println("That's the coff section page.");
-		for (int s = 0; s < coff.getNumSections(); s++) {
-			CoffSection section = coff.getSection(s);
-			boolean readOnly = section.isReadOnly();
-				for (int i = 0; i < section.getLength(); i++) {
-					if (section.getFirstVPN() + i == badVpn){
-						int vpn = section.getFirstVPN() + i;
-						//TODO: do your page replacement algorithm here:
-						if (!freeList.isEmpty()){
-							ppn = freeList.remove();
-						} else{
-							ppn = PageReplacement();
-						}
-						VMKernel.IPT.replace(ppn, this);
-						VMKernel.IPV.replace(ppn, vpn);				
-						//pageTable[vpn] = new TranslationEntry(vpn, ppn, true, readOnly, false, false);
-						pageTable[vpn].valid = true;
-						pageTable[vpn].readOnly = readOnly;
-						pageTable[vpn].ppn = ppn;
-						section.loadPage(i, pageTable[vpn].ppn);
-						//System.out.println("The ppn in pagefault handler is: " + ppn + " and the vpn is: " + vpn);
-						//System.out.println("That's the coff page.");
-						//pageTable[vpn].printString();
-					}
-				}
-			
+			shared = VMKernel.sharedPages.get(key);
+			if (shared == null){
+				//we load it, and anyone else wanting it waits for us
+				shared = new SharedPage(key);
+				VMKernel.sharedPages.put(key, shared);
+				break;
+			}
+			if (!shared.loading){
+				shared.sharers.add(this);
+				entry.readOnly = true;
+				entry.ppn = shared.ppn;
+				entry.valid = true;
+				VMKernel.pinLock.release();
+				pageLock.release();
+				return;
+			}
+			VMKernel.transitCV.sleep();
 		}
+		int ppn = getFreePage();
+		if (shared != null){
+			shared.ppn = ppn;
+			shared.sharers.add(this);
+			VMKernel.sharedFrame[ppn] = shared;
 		}
-		VMKernel.vmLock.release();
-		return;
-	}
+		VMKernel.pinLock.release();
 
-	private boolean allPagePinned(){
-		int numPhysPages = Machine.processor().getNumPhysPages();
-		for (int i = 0; i < numPhysPages; i++){
-			if (VMKernel.pinTable[i] == false){
-				return false;
+		if (entry.spn != -1){
+			//read from swapfile.
+			readSwapCluster(badVpn, ppn);
+		}
+		else if (mapOf(badVpn) != null){
+			//a page of a mapped file; past the end of the file it is zeros
+			MemoryMap map = mapOf(badVpn);
+			byte[] memory = processor.getMemory();
+			int paddr = Processor.makeAddress(ppn, 0);
+			int read = map.file.read((badVpn - map.firstVpn)*pageSize, memory, paddr, pageSize);
+			Arrays.fill(memory, paddr + Math.max(read, 0), paddr + pageSize, (byte) 0);
+			finishPageIn(badVpn, ppn);
+		}
+		else if (badVpn >= numPages - stackPages - 1 && badVpn <= numPages - 1){
+			//that's the stack/argument pages.
+			int paddr = Processor.makeAddress(ppn, 0);
+			Arrays.fill(processor.getMemory(), paddr, paddr + pageSize, (byte) 0);
+			finishPageIn(badVpn, ppn);
+		}
+		else {
+			//That's the coff section page.
+			CoffSection section = coff.getSection(pageSection[badVpn]);
+			entry.readOnly = section.isReadOnly();
+			section.loadPage(badVpn - section.getFirstVPN(), ppn);
+			Machine.recordPaging(0, 1, 0, 0, 0);
+			finishPageIn(badVpn, ppn);
+			if (shared != null){
+				VMKernel.pinLock.acquire();
+				shared.loading = false;
+				VMKernel.transitCV.wakeAll();
+				VMKernel.pinLock.release();
 			}
 		}
-		return true;
+		pageLock.release();
 	}
 
-	// TODO: finish the pagereplacement algorithm here. Also see the Inverted page table in VMKernel. I also have the IPT_vpn. see the VMprocess in the end.
-	private int PageReplacement(){
+	/**
+	 * Map virtual page <i>vpn</i> to physical page <i>ppn</i>, which it has
+	 * been read into, and unpin the frame.
+	 */
+	private void finishPageIn(int vpn, int ppn){
 		VMKernel.pinLock.acquire();
-		//System.out.println("Oh, we enter the page replacement function.");
-		int ppn = 0;
-		int numPhysPages = Machine.processor().getNumPhysPages();
-		while(true) {
-            // invertedPageTable = <PPN, pair<process, VPN>>
-            // if(VMKernel.pinTable[VMProcess.victimPage] == true) {
-            //     continue;
-            // }
-
-			while(allPagePinned()){
-				VMKernel.pinCV.sleep();
-			}
-
-			if(VMKernel.IPT.get(VMKernel.victimPage).pageTable[VMKernel.IPV.get(VMKernel.victimPage)].used == false && !VMKernel.pinTable[VMKernel.victimPage]) {
-				
-				ppn = VMKernel.victimPage;
-				if (VMKernel.IPT.get(VMKernel.victimPage).pageTable[VMKernel.IPV.get(VMKernel.victimPage)].dirty == true){
-					swap(ppn);
+		pageTable[vpn].ppn = ppn;
+		pageTable[vpn].valid = true;
+		VMKernel.mapPage(ppn, this, vpn, pageTable[vpn]);
+		VMKernel.unpinPageLocked(ppn);
+		VMKernel.pinLock.release();
+	}
+
+	/**
+	 * Give this process its own copy of virtual page <i>vpn</i>, if it is a
+	 * copy-on-write page shared with other processes, and make it writable.
+	 *
+	 * @return false if the page is read-only in the executable.
+	 */
+	private boolean breakCopyOnWrite(int vpn){
+		if (isReadOnlyPage(vpn)){
+			return false;
+		}
+		pageLock.acquire();
+		VMKernel.pinLock.acquire();
+		TranslationEntry entry = pageTable[vpn];
+		while (true){
+			while (inTransit(vpn)){
+				VMKernel.transitCV.sleep();
+			}
+			//an evicted page is no longer shared, and is faulted in writable
+			if (!entry.valid || !entry.readOnly){
+				break;
+			}
+			int oldPpn = entry.ppn;
+			SharedPage shared = VMKernel.sharedFrame[oldPpn];
+			Lib.assertTrue(shared != null && shared.copyOnWrite);
+			VMKernel.pinPageLocked(oldPpn);
+			int ppn = getFreePage();
+			if (VMKernel.sharedFrame[oldPpn] == shared){
+				byte[] memory = Machine.processor().getMemory();
+				System.arraycopy(memory, oldPpn*pageSize, memory, ppn*pageSize, pageSize);
+				unsharePage(vpn);
+				entry.ppn = ppn;
+				entry.readOnly = false;
+				entry.used = true;
+				entry.dirty = true;
+				VMKernel.mapPage(ppn, this, vpn, entry);
+			}
+			else{
+				//the other processes exited while we waited for a page, so
+				//the page is ours alone now
+				if (VMKernel.coreEntry[ppn] != null){
+					VMKernel.unmapPage(ppn);
 				}
-				//System.out.println("what is the ppn in pagereplacement is: " + ppn);
-				VMKernel.IPT.get(VMKernel.victimPage).pageTable[VMKernel.IPV.get(VMKernel.victimPage)].used = true;
-				VMKernel.victimPage = (VMKernel.victimPage + 1) % numPhysPages;
-                break;
-            }
-            else if(VMKernel.IPT.get(VMKernel.victimPage).pageTable[VMKernel.IPV.get(VMKernel.victimPage)].used == true) {
-                VMKernel.IPT.get(VMKernel.victimPage).pageTable[VMKernel.IPV.get(VMKernel.victimPage)].used = false;
-            }
-
-            VMKernel.victimPage = (VMKernel.victimPage + 1) % numPhysPages;
-        }
-		VMKernel.IPT.get(ppn).pageTable[VMKernel.IPV.get(ppn)].ppn = -1;
-		VMKernel.IPT.get(ppn).pageTable[VMKernel.IPV.get(ppn)].valid = false;
+				freeList.add(ppn);
+			}
+			VMKernel.unpinPageLocked(ppn);
+			VMKernel.unpinPageLocked(oldPpn);
+		}
 		VMKernel.pinLock.release();
-		return ppn;
+		pageLock.release();
+		//the TLB may still hold the read-only translation
+		flushTLB();
+		return true;
 	}
 
+	/**
+	 * Test whether virtual page <i>vpn</i> is in a read-only section of the
+	 * executable.
+	 */
+	private boolean isReadOnlyPage(int vpn){
+		return pageSection[vpn] != -1
+				&& coff.getSection(pageSection[vpn]).isReadOnly();
+	}
 
-	//TODO: finish the swapping part
-	//if we find this ppn is the victim page we need to remove, and dirty bit is 1, then we move to swapping file.
-	//if you have more time on it. Please do the part in readVirtualMemory. If we find the page is invalid, and dirty is 1,
-	//we need to search from sweaping file. and put these data back to memory. set the page to valid. Same in writeVirtualMemory.
-	private void swap(int ppn){
-		System.out.println("Hey, I am in the swap now.");
-		System.out.println("The page table vpn in swap is: " + VMKernel.IPT.get(ppn).pageTable[VMKernel.IPV.get(ppn)].vpn + "readonly is: " + VMKernel.IPT.get(ppn).pageTable[VMKernel.IPV.get(ppn)].readOnly);
-		int spn = 0;
-		if (!VMKernel.freeswappagelist.isEmpty()){//if there is free swap page number left, then use this
-			spn = VMKernel.freeswappagelist.removeLast();
+	/**
+	 * Stop sharing virtual page <i>vpn</i>, if it is a shared page. If other
+	 * processes still map it and this process owned it in the core map, hand
+	 * it to one of them. A copy-on-write page left with one process becomes
+	 * private to it again. Called with pinLock held, when this process exits
+	 * or copies the page.
+	 *
+	 * @return true if other processes still map the page, so it must not be
+	 * freed.
+	 */
+	private boolean unsharePage(int vpn){
+		int ppn = pageTable[vpn].ppn;
+		SharedPage shared = VMKernel.sharedFrame[ppn];
+		if (shared == null){
+			return false;
 		}
-		else{//else we make a new space
-			spn = VMKernel.swappagenumber;//swapfile page number
-			VMKernel.swappagenumber ++;//add one to spn
+		shared.sharers.remove(this);
+		if (shared.sharers.isEmpty()){
+			VMKernel.sharedPages.remove(shared.key);
+			VMKernel.sharedFrame[ppn] = null;
+			return false;
 		}
-			
-		VMKernel.swapfile.write(spn*pageSize, Machine.processor().getMemory(), ppn*pageSize, pageSize);//write to swap file
-		//VMkernel.IPT[ppn].entry.vpn = spn;//map from vpn to spn
-		VMKernel.IPT.get(ppn).pageTable[VMKernel.IPV.get(ppn)].spn = spn;
-		//VMkernel.IPT[victim].entry.valid = false;//set entry to false
+		if (VMKernel.coreOwner[ppn] == this){
+			VMProcess heir = shared.sharers.getFirst();
+			VMKernel.rehomePage(ppn, heir, heir.pageTable[vpn]);
+		}
+		if (shared.copyOnWrite && shared.sharers.size() == 1){
+			VMProcess last = shared.sharers.getFirst();
+			last.pageTable[vpn].readOnly = last.isReadOnlyPage(vpn);
+			VMKernel.sharedFrame[ppn] = null;
+		}
+		return true;
 	}
 
-	public int writeVirtualMemory(int vaddr, byte[] data, int offset, int length) {
-		
-		System.out.println("Can we in the write VM.");
-		Lib.assertTrue(offset >= 0 && length >= 0
-				&& offset + length <= data.length);
-
-		// byte[] memory = Machine.processor().getMemory();
+	/**
+	 * Invalidate a shared page in every process mapping it, because it is
+	 * being evicted. Read-only pages are never dirty, so nothing is written.
+	 * Called with pinLock held.
+	 */
+	private static void evictSharedPage(SharedPage shared, int vpn){
+		for (Iterator<VMProcess> i = shared.sharers.iterator(); i.hasNext();){
+			TranslationEntry entry = i.next().pageTable[vpn];
+			entry.valid = false;
+			entry.ppn = -1;
+		}
+		VMKernel.sharedPages.remove(shared.key);
+		VMKernel.sharedFrame[shared.ppn] = null;
+	}
 
-		// // for now, just assume that virtual addresses equal physical addresses
-		// if (vaddr < 0 || vaddr >= memory.length)
-		// 	return 0;
+	/**
+	 * Evict a copy-on-write page from every process mapping it. Each process
+	 * whose copy is dirty writes it to its own swap extent, and faults it in
+	 * again as a private page. Called with pinLock held, which is released
+	 * during the writes; the page is in transit in every process until then.
+	 */
+	private static void evictCopyOnWritePage(SharedPage shared, int vpn){
+		LinkedList<VMProcess> sharers = new LinkedList<VMProcess>(shared.sharers);
+		for (Iterator<VMProcess> i = sharers.iterator(); i.hasNext();){
+			i.next().pageTable[vpn].valid = false;
+		}
+		for (Iterator<VMProcess> i = sharers.iterator(); i.hasNext();){
+			VMProcess sharer = i.next();
+			TranslationEntry entry = sharer.pageTable[vpn];
+			if (entry.dirty){
+				while (sharer.isSwapWriting(vpn)){
+					VMKernel.transitCV.sleep();
+				}
+				sharer.writeSwapCluster(vpn);
+			}
+			entry.readOnly = sharer.isReadOnlyPage(vpn);
+			entry.used = true;
+			entry.ppn = -1;
+		}
+		VMKernel.sharedFrame[shared.ppn] = null;
+	}
 
-		// int amount = Math.min(length, memory.length - vaddr);
-		// System.arraycopy(data, offset, memory, vaddr, amount);
+	/**
+	 * Test whether virtual page <i>vpn</i> is in transit: another process is
+	 * evicting it, or its swap copy is still being written. Called with
+	 * pinLock held.
+	 */
+	private boolean inTransit(int vpn){
+		TranslationEntry entry = pageTable[vpn];
+		return isSwapWriting(vpn) || (!entry.valid && entry.ppn != -1);
+	}
 
-		// return amount;
-		int transferredBytes = 0;
-		int amount = 0;
-		//System.out.println("The length (readBytes) is: " + length);
-		//String string = new String(data);
+	/**
+	 * Test whether virtual page <i>vpn</i> is being written back, to swap or
+	 * to its mapped file. Called with pinLock held.
+	 */
+	boolean isSwapWriting(int vpn){
+		return swapWrites[vpn] > 0;
+	}
 
-		//System.out.println("In the writeVirtualMemeory the data will be: " + string);
-		byte[] memory = Machine.processor().getMemory();
-		while(length > 0){
-			int vpn = Processor.pageFromAddress(vaddr);
-			int vpn_offset = Processor.offsetFromAddress(vaddr);
+	private boolean allPagePinned(){
+		return VMKernel.numUnpinned == 0;
+	}
 
-			if (pageTable[vpn] == null){
-				//System.out.println("The reason is the page is null.");
-				return -1;
-			}
-			int ppn = pageTable[vpn].ppn;
-			//ppn = -1, spn = anynumber > 0, valid = false. content is in swapfile, but this one is writevm, only need to put the data to memory
-			// we donot need to content in this swapfile.
-			pageTable[vpn].used = true;
-			if(ppn == -1){
+	/**
+	 * Page in virtual page <i>vpn</i> if necessary and pin it, so it stays in
+	 * memory until <tt>VMKernel.unpinPage()</tt>. Pages it in again if it was
+	 * evicted before it could be pinned.
+	 *
+	 * @return the physical page holding <i>vpn</i>.
+	 */
+	private int pinVirtualPage(int vpn){
+		while (true){
+			if (!pageTable[vpn].valid){
 				handlePageFault(vpn);
 			}
-
-			if (pageTable[vpn].readOnly){
-				//System.out.println("The reason is the page table is read only");
-				return -1;
+			VMKernel.pinLock.acquire();
+			if (pageTable[vpn].valid){
+				int ppn = pageTable[vpn].ppn;
+				VMKernel.pinPageLocked(ppn);
+				VMKernel.pinLock.release();
+				return ppn;
 			}
+			VMKernel.pinLock.release();
+		}
+	}
 
-			VMKernel.pinLock.acquire(); 
-
-			//if ppn != -1, but it is invalid, the ppn is spn, the data is in swapfile. this one is from data to memory.
-			/*Change dirty bit to 1 */
-			pageTable[vpn].dirty = true;
-			ppn = pageTable[vpn].ppn;
-			//System.out.println("The page number in wvm is: " + ppn + " and the vpn is: " + vpn);
-			
-			VMKernel.pinTable[ppn] = true;
+	/**
+	 * Return a pinned physical page to read a page into, evicting one if
+	 * there is no free page. Called with pinLock held.
+	 */
+	private int getFreePage(){
+		while (freeList.isEmpty() && allPagePinned()){
+			VMKernel.pinCV.sleep();
+		}
+		VMKernel.wakePageCleaner(freeList.size());
+		if (!freeList.isEmpty()){
+			int ppn = freeList.remove();
+			VMKernel.pinPageLocked(ppn);
+			return ppn;
+		}
+		return PageReplacement();
+	}
 
-			int physcial_address = Processor.makeAddress(ppn, vpn_offset);
+	// Evict the page chosen by VMKernel.replacementPolicy. The frame stays
+	// pinned for the caller, and the page is in transit until it is evicted.
+	private int PageReplacement(){
+		flushTLB();
+		int ppn = VMKernel.replacementPolicy.chooseVictim();
+		TranslationEntry evicted = VMKernel.coreEntry[ppn];
+		VMProcess owner = VMKernel.coreOwner[ppn];
+		Lib.assertTrue(evicted != null && VMKernel.pinCount[ppn] == 0);
+		VMKernel.pinPageLocked(ppn);
+		evicted.valid = false;
+		SharedPage shared = VMKernel.sharedFrame[ppn];
+		if (shared != null && shared.copyOnWrite){
+			evictCopyOnWritePage(shared, evicted.vpn);
+		}
+		else{
+			if (shared != null){
+				evictSharedPage(shared, evicted.vpn);
+			}
+			if (evicted.dirty == true){
+				//an earlier copy of the page must reach swap before this one
+				while (owner.isSwapWriting(evicted.vpn)){
+					VMKernel.transitCV.sleep();
+				}
+				swap(ppn);
+			}
+		}
+		evicted.used = true;
+		evicted.ppn = -1;
+		Machine.recordPaging(0, 0, 0, 0, 1);
+		VMKernel.transitCV.wakeAll();
+		return ppn;
+	}
 
-			amount = Math.min(length, pageSize-vpn_offset);
 
-			if (physcial_address < 0 || physcial_address >= memory.length){
-				//System.out.println("The reason is the pm is invalid.");
-				VMKernel.pinTable[ppn] = false;
-				VMKernel.pinCV.wakeAll();
-				VMKernel.pinLock.release();
-				return -1;
-			}
-			System.arraycopy(data, offset, memory, physcial_address, amount);
-			//System.out.println("The offset will be: " + offset + " and in this offset, we transfer the");
+	//Write the dirty page in physical page ppn back before it is evicted.
+	private void swap(int ppn){
+		TranslationEntry entry = VMKernel.coreEntry[ppn];
+		Lib.debug(dbgVM, "\tswapping out vpn " + entry.vpn + " from ppn " + ppn);
+		//the victim may belong to another process
+		VMKernel.coreOwner[ppn].writeBack(entry.vpn);
+	}
 
-			length -= amount;
-			transferredBytes += amount;
-			vaddr += amount;
-			offset += amount;
-			
-			VMKernel.pinTable[ppn] = false;
-			VMKernel.pinCV.wakeAll();
-			VMKernel.pinLock.release();
-			//how about the offset, very confused on this part.
+	/**
+	 * Write dirty page <i>vpn</i> back: to its file if it is a page of a
+	 * mapped file, otherwise to swap. Called with pinLock held, which is
+	 * released during the write.
+	 *
+	 * @return the number of pages written.
+	 */
+	int writeBack(int vpn){
+		if (mapOf(vpn) != null){
+			return writeMappedPage(vpn);
 		}
-		//System.out.println("The transferred Bytes(write bytes): " + transferredBytes);
+		return writeSwapCluster(vpn);
+	}
+
+	/**
+	 * Write dirty page <i>vpn</i> of a mapped file back to the file. The page
+	 * is copied and its dirty bit cleared before the write starts, and it is
+	 * in transit until the write finishes, like a page being written to
+	 * swap. Called with pinLock held, which is released during the write.
+	 *
+	 * @return the number of pages written.
+	 */
+	private int writeMappedPage(int vpn){
+		Lib.assertTrue(!isSwapWriting(vpn));
+		MemoryMap map = mapOf(vpn);
+		TranslationEntry entry = pageTable[vpn];
+		int offset = (vpn - map.firstVpn)*pageSize;
+		int amount = Math.min(pageSize, map.length - offset);
+		byte[] buffer = new byte[amount];
+		System.arraycopy(Machine.processor().getMemory(), entry.ppn*pageSize, buffer, 0, amount);
+		entry.dirty = false;
+		swapWrites[vpn]++;
 
-		return transferredBytes;
+		VMKernel.pinLock.release();
+		map.file.write(offset, buffer, 0, amount);
+		VMKernel.pinLock.acquire();
+
+		swapWrites[vpn]--;
+		VMKernel.transitCV.wakeAll();
+		return 1;
 	}
 
-	public int readVirtualMemory(int vaddr, byte[] data, int offset, int length) {
-		//System.out.println("can we in the readvirtualmemory.");
+	/**
+	 * Test whether virtual page <i>vpn</i> is in memory, dirty and unpinned,
+	 * so it can be written to swap along with a neighbour.
+	 */
+	private boolean isDirtyResident(int vpn){
+		TranslationEntry entry = pageTable[vpn];
+		return entry.valid && entry.dirty && !isSwapWriting(vpn)
+				&& VMKernel.pinCount[entry.ppn] == 0;
+	}
 
-		//handlepage fault, store in the swapfile, readvm, find these memory in the swapfile. OK, we read from the swapfile, 
-		//valid this memory again, and put back the memory into physical memory. ask TA.
+	/**
+	 * Test whether virtual page <i>vpn</i> is only in swap, so it can be read
+	 * in along with a neighbour.
+	 */
+	private boolean isSwappedOut(int vpn){
+		TranslationEntry entry = pageTable[vpn];
+		return !entry.valid && entry.ppn == -1 && entry.spn != -1
+				&& !isSwapWriting(vpn);
+	}
 
-		
-		Lib.assertTrue(offset >= 0 && length >= 0
-				&& offset + length <= data.length);
-		
-		int transferredBytes = 0;
-		int amount = 0;
-		// byte[] memory = Machine.processor().getMemory();
+	/**
+	 * Write dirty page <i>vpn</i> to swap, together with the dirty, unpinned
+	 * pages next to it, up to VMKernel.swapCluster pages in all. Their swap
+	 * pages are contiguous, so this takes a single file operation. The pages
+	 * are copied and their dirty bits cleared before the write starts, so a
+	 * store during the write dirties a page again. Until the write finishes
+	 * the pages are in transit, and cannot be read back from swap.
+	 *
+	 * Called with pinLock held, which is released during the write. The
+	 * page's swap copy must not already be being written.
+	 *
+	 * @return the number of pages written.
+	 */
+	int writeSwapCluster(int vpn){
+		Lib.assertTrue(!isSwapWriting(vpn));
+		if (swapBase == -1){
+			swapBase = VMKernel.swapAllocator.allocate(numPages);
+		}
 
-		// // for now, just assume that virtual addresses equal physical addresses
-		// if (vaddr < 0 || vaddr >= memory.length)
-		// 	return 0;
+		int first = vpn, last = vpn;
+		while (last - first + 1 < VMKernel.swapCluster && last + 1 < numPages
+				&& isDirtyResident(last + 1)){
+			last++;
+		}
+		while (last - first + 1 < VMKernel.swapCluster && first > 0
+				&& isDirtyResident(first - 1)){
+			first--;
+		}
 
-		// int amount = Math.min(length, memory.length - vaddr);
-		// System.arraycopy(memory, vaddr, data, offset, amount);
+		int count = last - first + 1;
 		byte[] memory = Machine.processor().getMemory();
-		while(length > 0){
-			int vpn = Processor.pageFromAddress(vaddr);
-			int vpn_offset = Processor.offsetFromAddress(vaddr);
+		byte[] buffer = new byte[count*pageSize];
+		for (int i = 0; i < count; i++){
+			TranslationEntry entry = pageTable[first + i];
+			System.arraycopy(memory, entry.ppn*pageSize, buffer, i*pageSize, pageSize);
+			entry.dirty = false;
+			entry.spn = swapBase + first + i;
+			swapWrites[first + i]++;
+		}
 
-			if (pageTable[vpn] == null){
-				return -1;
-			}
-			int ppn = pageTable[vpn].ppn;
-			
-			pageTable[vpn].used = true;
+		VMKernel.pinLock.release();
+		VMKernel.swapfile.write((swapBase + first)*pageSize, buffer, 0, count*pageSize);//write to swap file
+		Machine.recordPaging(0, 0, 0, count, 0);
+		VMKernel.pinLock.acquire();
 
-			if(ppn == -1){
-				handlePageFault(vpn);
+		for (int i = 0; i < count; i++){
+			swapWrites[first + i]--;
+		}
+		VMKernel.transitCV.wakeAll();
+		return count;
+	}
+
+	/**
+	 * Read virtual page <i>vpn</i> from swap into physical page <i>ppn</i>.
+	 * If there are free physical pages, also read the swapped out pages next
+	 * to it, up to VMKernel.swapCluster pages in all, in the same file
+	 * operation. Pages read ahead are mapped unused, so they are evicted
+	 * first if they are not touched. Called with pageLock held.
+	 */
+	private void readSwapCluster(int vpn, int ppn){
+		VMKernel.pinLock.acquire();
+		int limit = Math.max(1, Math.min(VMKernel.swapCluster, freeList.size() + 1));
+		int first = vpn, last = vpn;
+		while (last - first + 1 < limit && last + 1 < numPages && isSwappedOut(last + 1)){
+			last++;
+		}
+		while (last - first + 1 < limit && first > 0 && isSwappedOut(first - 1)){
+			first--;
+		}
+
+		int count = last - first + 1;
+		int[] ppns = new int[count];
+		for (int i = 0; i < count; i++){
+			if (first + i == vpn){
+				ppns[i] = ppn;
 			}
-				
-			ppn = pageTable[vpn].ppn;
-			VMKernel.pinLock.acquire(); 
-			VMKernel.pinTable[ppn] = true;
+			else{
+				ppns[i] = freeList.remove();
+				VMKernel.pinPageLocked(ppns[i]);
+			}
+		}
+		VMKernel.pinLock.release();
 
-			int physcial_address = Processor.makeAddress(ppn, vpn_offset);
+		byte[] memory = Machine.processor().getMemory();
+		byte[] buffer = new byte[count*pageSize];
+		VMKernel.swapfile.read((swapBase + first)*pageSize, buffer, 0, count*pageSize);
+		Machine.recordPaging(0, 0, count, 0, 0);
 
-			amount = Math.min(length, pageSize-vpn_offset);
+		for (int i = 0; i < count; i++){
+			TranslationEntry entry = pageTable[first + i];
+			Lib.assertTrue(entry.spn == swapBase + first + i);
+			System.arraycopy(buffer, i*pageSize, memory, ppns[i]*pageSize, pageSize);
+			//the page keeps its swap page, and is clean until it is written
+			entry.dirty = false;
+			if (first + i != vpn){
+				entry.used = false;
+			}
+			finishPageIn(first + i, ppns[i]);
+		}
+	}
 
-			if (physcial_address < 0 || physcial_address >= memory.length){
-				VMKernel.pinTable[ppn] = false;
-				VMKernel.pinCV.wakeAll();
-				VMKernel.pinLock.release(); 
-				return -1;
+	/**
+	 * Page in and pin the pages from <i>vaddr</i> onwards for a transfer, up
+	 * to the transfer pages free in <tt>VMKernel</tt>. Pages that will be
+	 * written stop being shared copy-on-write. Resident pages are pinned
+	 * under a single acquisition of pinLock.
+	 */
+	protected int[] pinPages(int vaddr, int length, boolean writing){
+		int firstVpn = Processor.pageFromAddress(vaddr);
+		int lastVpn = Processor.pageFromAddress(vaddr + length - 1);
+		for (int vpn = firstVpn; vpn <= lastVpn; vpn++){
+			if (pageTable[vpn] == null){
+				return null;
+			}
+			if (writing && pageTable[vpn].readOnly && isReadOnlyPage(vpn)){
+				return null;
 			}
-				
-			System.arraycopy(memory, physcial_address, data, offset, amount);
+		}
 
-			
-			length -= amount;
-			transferredBytes += amount;
-			vaddr += amount;
-			offset += amount;
-			
-			VMKernel.pinTable[ppn] = false;
-			VMKernel.pinCV.wakeAll();
-			VMKernel.pinLock.release(); 
-			//how about the offset, very confused on this part.
+		VMKernel.pinLock.acquire();
+		while (VMKernel.freeTransferPages == 0){
+			VMKernel.transferCV.sleep();
+		}
+		int count = Math.min(lastVpn - firstVpn + 1, VMKernel.freeTransferPages);
+		VMKernel.freeTransferPages -= count;
+		int[] ppns = new int[count];
+		for (int i = 0; i < count; i++){
+			TranslationEntry entry = pageTable[firstVpn + i];
+			if (entry.valid && !(writing && entry.readOnly)){
+				ppns[i] = entry.ppn;
+				VMKernel.pinPageLocked(ppns[i]);
+			}
+			else{
+				VMKernel.pinLock.release();
+				if (writing){
+					breakCopyOnWrite(firstVpn + i);
+				}
+				ppns[i] = pinVirtualPage(firstVpn + i);
+				VMKernel.pinLock.acquire();
+			}
+			entry.used = true;
+			if (writing){
+				entry.dirty = true;
+			}
 		}
-		
+		VMKernel.pinLock.release();
+		return ppns;
+	}
 
-		return transferredBytes;
+	/**
+	 * Unpin the pages of a transfer, and give back its transfer pages.
+	 */
+	protected void unpinPages(int[] ppns){
+		VMKernel.pinLock.acquire();
+		for (int i = 0; i < ppns.length; i++){
+			VMKernel.unpinPageLocked(ppns[i]);
+		}
+		VMKernel.freeTransferPages += ppns.length;
+		VMKernel.transferCV.wakeAll();
+		VMKernel.pinLock.release();
 	}
 
+	/** The pages this process has faulted in, for its working set profile. */
+	private BitSet faulted;
+
+	/** The COFF section holding each virtual page, or -1. */
+	private int[] pageSection;
+
+	/** Serializes this process's page faults. */
+	private Lock pageLock = new Lock();
+
+	/**
+	 * How many writes of each page's swap copy, or of a mapped page to its
+	 * file, are in progress. Protected by VMKernel.pinLock.
+	 */
+	private int[] swapWrites;
+
+	/** The files mapped into this process's address space. */
+	private LinkedList<MemoryMap> maps = new LinkedList<MemoryMap>();
+
+	/**
+	 * The most pages an address space can grow to with mmap(), so that a bad
+	 * address cannot make the page table huge.
+	 */
+	private static final int maxAddressPages = 1 << 16;
+
+	/** The first page of this process's extent of the swap file, or -1. */
+	private int swapBase = -1;
+
+	/** The next entry to replace in each TLB set. */
+	private int[] tlbVictim;
+
+	private static final int syscallMmap = 10;
+
 	private static final int pageSize = Processor.pageSize;
 
 	private static final char dbgProcess = 'a';
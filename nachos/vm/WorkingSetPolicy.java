@@ -0,0 +1,80 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * The WSClock algorithm. Each physical page remembers the last time its used
+ * bit was seen set. A page not used within the last <i>window</i> ticks
+ * (<tt>WorkingSetPolicy.window</tt> in <tt>nachos.conf</tt>) is outside its
+ * owner's working set. One sweep of the hand chooses, in order of
+ * preference:
+ *
+ * <ol>
+ * <li>the first clean page outside its working set,
+ * <li>the first dirty page outside its working set,
+ * <li>the unpinned page that was used least recently.
+ * </ol>
+ */
+public class WorkingSetPolicy extends ReplacementPolicy {
+	/**
+	 * Allocate a new working set policy.
+	 */
+	public WorkingSetPolicy() {
+	}
+
+	public void initialize(int numPhysPages) {
+		super.initialize(numPhysPages);
+
+		window = Config.getInteger("WorkingSetPolicy.window", 5000);
+		lastUse = new long[numPhysPages];
+	}
+
+	public void pageIn(int ppn) {
+		lastUse[ppn] = Machine.timer().getTime();
+	}
+
+	public int chooseVictim() {
+		long time = Machine.timer().getTime();
+		int oldDirty = -1, oldest = -1;
+
+		for (int i = 0; i < numPhysPages; i++) {
+			int victim = (hand + i) % numPhysPages;
+			TranslationEntry entry = entry(victim);
+			if (entry == null)
+				continue;
+
+			if (entry.used) {
+				entry.used = false;
+				lastUse[victim] = time;
+			}
+
+			if (isPinned(victim))
+				continue;
+
+			if (time - lastUse[victim] > window) {
+				if (!entry.dirty) {
+					hand = (victim + 1) % numPhysPages;
+					return victim;
+				}
+				if (oldDirty == -1)
+					oldDirty = victim;
+			}
+
+			if (oldest == -1 || lastUse[victim] < lastUse[oldest])
+				oldest = victim;
+		}
+
+		int victim = (oldDirty != -1) ? oldDirty : oldest;
+		Lib.assertTrue(victim != -1, "no unpinned page");
+
+		hand = (victim + 1) % numPhysPages;
+		return victim;
+	}
+
+	private int hand = 0;
+
+	private long window;
+
+	/** The last time each physical page was seen used. */
+	private long[] lastUse;
+}